@@ -0,0 +1,60 @@
+package crux.bench;
+
+import crux.ProgramGenerator;
+import crux.frontend.ParseTreeLower;
+import crux.frontend.pt.CruxLexer;
+import crux.frontend.pt.CruxParser;
+import crux.frontend.types.TypeChecker;
+import crux.midend.ASTLower;
+import crux.midend.ir.core.BasicBlock;
+import crux.midend.ir.core.Program;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how much heap the IR of a generated program takes: the heap in use after a full collection with the type
+ * checked AST alone, and again once the program is lowered as well. The JMH benchmarks only measure time, so this is a
+ * plain program:
+ * <pre>
+ *     java -cp target/benchmarks.jar crux.bench.Footprint [functions, default 2000]
+ * </pre>
+ */
+public final class Footprint {
+    private Footprint() {
+    }
+
+    public static void main(String[] args) {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        var source = new ProgramGenerator().setFunctions(functions).generate();
+        var parser = new CruxParser(new CommonTokenStream(new CruxLexer(CharStreams.fromString(source))));
+        var ast = new ParseTreeLower(new PrintStream(OutputStream.nullOutputStream())).lower(parser.program());
+        parser = null;
+        var typeChecker = new TypeChecker();
+        typeChecker.check(ast);
+
+        long before = usedHeap();
+        Program program = new ASTLower(typeChecker).lower(ast);
+        long after = usedHeap();
+
+        long instructions = 0;
+        for (var it = program.getFunctions(); it.hasNext(); ) {
+            for (BasicBlock block : it.next().getCFG().getBlocks())
+                instructions += block.getInstructions().size();
+        }
+        // The control flow graphs are only built for counting; measure without them.
+        long bytes = after - before;
+        System.out.printf("%d functions, %d instructions: %.1f MB of IR, %.1f bytes per instruction%n",
+                functions, instructions, bytes / 1e6, (double) bytes / instructions);
+    }
+
+    private static long usedHeap() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,92 @@
+package crux.bench;
+
+import crux.ProgramGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The programs the benchmarks run on: the programs of one directory of the stage tests, like ir or codegen, or a
+ * program of a given number of functions made up for the purpose, like scaled-1000, or by the
+ * {@link crux.ProgramGenerator}, like generated-1000.
+ */
+final class Inputs {
+    /** A program and what it reads when emulated. */
+    static final class Source {
+        final String name, text, input;
+
+        Source(String name, String text, String input) {
+            this.name = name;
+            this.text = text;
+            this.input = input;
+        }
+    }
+
+    private Inputs() {
+    }
+
+    static List<Source> load(String programs) {
+        if (programs.startsWith("scaled-")) {
+            int functions = Integer.parseInt(programs.substring("scaled-".length()));
+            return List.of(new Source(programs, scaled(functions), ""));
+        }
+        if (programs.startsWith("generated-")) {
+            int functions = Integer.parseInt(programs.substring("generated-".length()));
+            return List.of(new Source(programs, new ProgramGenerator().setFunctions(functions).generate(), ""));
+        }
+
+        var directory = new File(System.getProperty("crux.stages", "../src/test/resources/crux/stages"), programs);
+        var files = directory.listFiles((dir, name) -> name.endsWith(".crx"));
+        if (files == null)
+            throw new IllegalArgumentException(String.format("no test programs in '%s'", directory));
+        Arrays.sort(files);
+        var sources = new ArrayList<Source>();
+        for (var file : files) {
+            var input = new File(file.getPath().replaceFirst("\\.crx$", ".in"));
+            sources.add(new Source(file.getName(), read(file), input.isFile() ? read(input) : ""));
+        }
+        return sources;
+    }
+
+    /**
+     * A program of the given number of functions, each with a loop, a branch, array accesses and a call to the
+     * function before it, so that every stage has about the same work to do per function.
+     */
+    static String scaled(int functions) {
+        var sb = new StringBuilder("array data : int[16];\n");
+        for (int i = 1; i <= functions; i++) {
+            sb.append(String.format("func f%d(a : int, b : int) : int {%n", i));
+            sb.append("    var s : int;\n");
+            sb.append("    let s = 0;\n");
+            sb.append("    while (a < b) {\n");
+            sb.append(String.format("        let s = s + a * %d;%n", i));
+            sb.append("        let data[a] = s;\n");
+            sb.append("        if (s > 1000) {\n");
+            sb.append("            let s = s - data[a] / 2;\n");
+            sb.append("        } else {\n");
+            sb.append("            let s = s + 1;\n");
+            sb.append("        }\n");
+            sb.append("        let a = a + 1;\n");
+            sb.append("    }\n");
+            if (i > 1)
+                sb.append(String.format("    let s = s + ::f%d(a - 4, b);%n", i - 1));
+            sb.append("    return s;\n");
+            sb.append("}\n");
+        }
+        sb.append(String.format("func main() : void {%n    ::printInt(::f%d(0, 8));%n    ::println();%n}%n", functions));
+        return sb.toString();
+    }
+
+    private static String read(File file) {
+        try {
+            return Files.readString(file.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
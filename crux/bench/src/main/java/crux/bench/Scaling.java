@@ -0,0 +1,181 @@
+package crux.bench;
+
+import crux.Driver;
+import crux.ProgramGenerator;
+import crux.StageTiming;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles generated programs of growing size and prints how long each stage of the driver took, to catch stages whose
+ * time grows faster than the program. One setting of the {@link ProgramGenerator} grows, the others keep their
+ * defaults; for every stage the exponent k of time ~ lines^k is fitted over all sizes, and stages with k above 1.2
+ * are marked super-linear.
+ * <p>
+ * Unlike the JMH benchmarks this only needs the compiler on the class path:
+ * <pre>
+ *     java -cp target/benchmarks.jar crux.bench.Scaling [--grow functions] [--sizes 250,500,1000,2000,4000]
+ *          [--repeat 3] [--csv file] [-O2] [--regalloc]
+ * </pre>
+ * {@code --grow} takes the name of any generator setting: functions, statements, nesting, expression-length or
+ * array-size. The CSV has one row per size and stage, with the wall milliseconds of the fastest repetition, ready to
+ * be plotted.
+ */
+public final class Scaling {
+    private static final double SUPER_LINEAR = 1.2;
+
+    private String grow = "functions";
+    private int[] sizes = {250, 500, 1000, 2000, 4000};
+    private int repeat = 3;
+    private String csv = null;
+    private int optLevel = 0;
+    private boolean regAlloc = false;
+
+    /** Per size the lines of the program, and per stage the best wall time of each size. */
+    private final List<Integer> lines = new ArrayList<>();
+    private final Map<String, List<Double>> millis = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        var scaling = new Scaling();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--grow": scaling.grow = value(args, ++i); break;
+                case "--sizes": scaling.sizes = parseSizes(value(args, ++i)); break;
+                case "--repeat": scaling.repeat = Integer.parseInt(value(args, ++i)); break;
+                case "--csv": scaling.csv = value(args, ++i); break;
+                case "-O0": case "-O1": case "-O2": scaling.optLevel = args[i].charAt(2) - '0'; break;
+                case "--regalloc": scaling.regAlloc = true; break;
+                default: throw new IllegalArgumentException(String.format("unrecognized option '%s'", args[i]));
+            }
+        }
+        scaling.run();
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException(String.format("option '%s' needs a value", args[i - 1]));
+        return args[i];
+    }
+
+    private static int[] parseSizes(String list) {
+        var parts = list.split(",");
+        var sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        return sizes;
+    }
+
+    private void run() throws IOException {
+        var assembly = File.createTempFile("crux-scaling", ".s");
+        try {
+            // The smallest program once more up front, so that the first size is not measured on a cold JVM.
+            compile(generator(sizes[0]).generate(), assembly);
+            for (int size : sizes) {
+                var source = generator(size).generate();
+                lines.add((int) source.lines().count());
+                Map<String, Double> best = new LinkedHashMap<>();
+                for (int r = 0; r < repeat; r++) {
+                    for (var timing : compile(source, assembly))
+                        best.merge(timing.getStage(), timing.getWallNanos() / 1e6, Math::min);
+                }
+                for (var entry : best.entrySet())
+                    millis.computeIfAbsent(entry.getKey(), s -> new ArrayList<>()).add(entry.getValue());
+            }
+        } finally {
+            assembly.delete();
+        }
+        print(System.out);
+        if (csv != null) {
+            try (var out = new PrintStream(csv, StandardCharsets.UTF_8)) {
+                printCsv(out);
+            }
+        }
+    }
+
+    private ProgramGenerator generator(int size) {
+        var generator = new ProgramGenerator();
+        switch (grow) {
+            case "functions": return generator.setFunctions(size);
+            case "statements": return generator.setStatements(size);
+            case "nesting": return generator.setNesting(size);
+            case "expression-length": return generator.setExpressionLength(size);
+            case "array-size": return generator.setArraySize(size);
+            default: throw new IllegalArgumentException(String.format("cannot grow '%s'", grow));
+        }
+    }
+
+    private List<StageTiming> compile(String source, File assembly) {
+        var nowhere = new PrintStream(OutputStream.nullOutputStream());
+        var driver = new Driver(nowhere, System.err);
+        driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+        driver.setOutputFile(assembly.getPath());
+        driver.setOptimizationLevel(optLevel);
+        if (regAlloc)
+            driver.enableRegAlloc();
+        var timings = new ArrayList<StageTiming>();
+        driver.addStageListener(timings::add);
+        driver.run();
+        // A run that fails stops before the last stage.
+        if (timings.isEmpty() || !timings.get(timings.size() - 1).getStage().equals("emitASM"))
+            throw new IllegalStateException("a generated program did not compile");
+        return timings;
+    }
+
+    private void print(PrintStream out) {
+        out.printf("wall ms of each stage, growing %s:%n", grow);
+        out.printf("%8s %8s", grow.length() > 8 ? grow.substring(0, 8) : grow, "lines");
+        for (var stage : millis.keySet())
+            out.printf(" %10s", stage);
+        out.println();
+        for (int i = 0; i < sizes.length; i++) {
+            out.printf("%8d %8d", sizes[i], lines.get(i));
+            for (var times : millis.values())
+                out.printf(" %10.2f", times.get(i));
+            out.println();
+        }
+        out.printf("%17s", "exponent");
+        for (var times : millis.values())
+            out.printf(" %10.2f", exponent(times));
+        out.println();
+        for (var entry : millis.entrySet()) {
+            if (exponent(entry.getValue()) > SUPER_LINEAR)
+                out.printf("%s grows super-linearly%n", entry.getKey());
+        }
+    }
+
+    private void printCsv(PrintStream out) {
+        out.println(String.format("%s,lines,stage,wall_ms", grow));
+        for (int i = 0; i < sizes.length; i++) {
+            for (var entry : millis.entrySet())
+                out.println(String.format("%d,%d,%s,%.3f", sizes[i], lines.get(i), entry.getKey(), entry.getValue().get(i)));
+        }
+    }
+
+    /** The slope of the least squares line through (log lines, log time), or NaN with fewer than two sizes. */
+    private double exponent(List<Double> times) {
+        int n = 0;
+        double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+        for (int i = 0; i < times.size(); i++) {
+            // Stages that take next to no time only measure the timer.
+            if (times.get(i) < 0.05)
+                continue;
+            double x = Math.log(lines.get(i)), y = Math.log(times.get(i));
+            n++;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        return n < 2 || denominator == 0 ? Double.NaN : (n * sumXY - sumX * sumY) / denominator;
+    }
+}
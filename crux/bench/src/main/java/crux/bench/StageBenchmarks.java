@@ -0,0 +1,144 @@
+package crux.bench;
+
+import crux.backend.CodeGen;
+import crux.frontend.ParseTreeLower;
+import crux.frontend.ast.DeclarationList;
+import crux.frontend.pt.CruxLexer;
+import crux.frontend.pt.CruxParser;
+import crux.frontend.types.TypeChecker;
+import crux.midend.ASTLower;
+import crux.midend.ir.core.Emulator;
+import crux.midend.ir.core.Program;
+import crux.midend.opt.PassManager;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per compiler stage. Each runs its stage once over every program of a set, starting from what the
+ * stage before it produced, which the setup prepares once.
+ * <p>
+ * Lowering mutates nothing, but the optimizer changes the program it runs on, so {@link #optimize} lowers a new program
+ * every time and includes the time of {@link #lower}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmarks {
+    @Param({"ir", "codegen", "scaled-100", "scaled-1000", "generated-1000"})
+    public String programs;
+
+    private List<Inputs.Source> sources;
+    private List<CruxParser.ProgramContext> parseTrees;
+    private List<DeclarationList> asts;
+    private List<TypeChecker> typeCheckers;
+    private List<Program> irPrograms;
+    private File assembly;
+    private final PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+
+    @Setup
+    public void setUp() throws IOException {
+        sources = Inputs.load(programs);
+        parseTrees = new ArrayList<>();
+        asts = new ArrayList<>();
+        typeCheckers = new ArrayList<>();
+        irPrograms = new ArrayList<>();
+        for (var source : sources) {
+            var parseTree = parse(source);
+            var ast = new ParseTreeLower(nowhere).lower(parseTree);
+            var typeChecker = new TypeChecker();
+            typeChecker.check(ast);
+            if (!typeChecker.getErrors().isEmpty())
+                throw new IllegalStateException(String.format("%s does not type check: %s", source.name, typeChecker.getErrors()));
+            parseTrees.add(parseTree);
+            asts.add(ast);
+            typeCheckers.add(typeChecker);
+            irPrograms.add(new ASTLower(typeChecker).lower(ast));
+        }
+        assembly = File.createTempFile("crux-bench", ".s");
+    }
+
+    @TearDown
+    public void tearDown() {
+        assembly.delete();
+    }
+
+    private static CruxParser.ProgramContext parse(Inputs.Source source) {
+        var parser = new CruxParser(new CommonTokenStream(new CruxLexer(CharStreams.fromString(source.text))));
+        parser.removeErrorListeners();
+        return parser.program();
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        for (var source : sources)
+            bh.consume(parse(source));
+    }
+
+    @Benchmark
+    public void makeAST(Blackhole bh) {
+        for (var parseTree : parseTrees)
+            bh.consume(new ParseTreeLower(nowhere).lower(parseTree));
+    }
+
+    @Benchmark
+    public void typeCheck(Blackhole bh) {
+        for (var ast : asts) {
+            var typeChecker = new TypeChecker();
+            typeChecker.check(ast);
+            bh.consume(typeChecker);
+        }
+    }
+
+    @Benchmark
+    public void lower(Blackhole bh) {
+        for (int i = 0; i < asts.size(); i++)
+            bh.consume(new ASTLower(typeCheckers.get(i)).lower(asts.get(i)));
+    }
+
+    @Benchmark
+    public void optimize(Blackhole bh) {
+        for (int i = 0; i < asts.size(); i++) {
+            var program = new ASTLower(typeCheckers.get(i)).lower(asts.get(i));
+            PassManager.forLevel(2).run(program);
+            bh.consume(program);
+        }
+    }
+
+    @Benchmark
+    public void genCode() {
+        for (var program : irPrograms)
+            new CodeGen(program, assembly.getPath()).genCode();
+    }
+
+    @Benchmark
+    public void genCodeRegAlloc() {
+        for (var program : irPrograms) {
+            var codegen = new CodeGen(program, assembly.getPath());
+            codegen.enableRegAlloc();
+            codegen.genCode();
+        }
+    }
+
+    @Benchmark
+    public void emulate() {
+        for (int i = 0; i < sources.size(); i++) {
+            var input = new ByteArrayInputStream(sources.get(i).input.getBytes(StandardCharsets.UTF_8));
+            new Emulator(irPrograms.get(i), input, nowhere).run();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package crux;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A directory of cache entries, one file per key, kept under a size limit by removing the entries that were used least
+ * recently.
+ * <p>
+ * The directory is listed once when it is opened, and after that the size of the entries is kept up to date as they are
+ * stored. Only when it goes over the limit is the directory listed again, which also picks up what other compilers
+ * sharing the directory have stored or removed meanwhile.
+ */
+final class CacheDirectory {
+    private final File directory;
+    private final String suffix;
+    private final long maxBytes;
+    private final AtomicInteger evictions = new AtomicInteger();
+    /** The bytes of all entries, as far as this compiler knows. */
+    private long size;
+
+    CacheDirectory(File directory, String suffix, long maxBytes) {
+        this.directory = directory;
+        this.suffix = suffix;
+        this.maxBytes = maxBytes;
+        size = size(entries());
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /** The file of the entry of a key, which may not exist. */
+    File file(String key) {
+        return new File(directory, key + suffix);
+    }
+
+    /** Marks an entry as just used, so that it is removed last. */
+    void touch(File entry) {
+        entry.setLastModified(System.currentTimeMillis());
+    }
+
+    /** Returns a new file in the directory to write an entry to, before it is {@link #commit committed}. */
+    File createTemp(String key) throws IOException {
+        directory.mkdirs();
+        return File.createTempFile(key, ".tmp", directory);
+    }
+
+    /**
+     * Makes a written temporary file the entry of a key. The file is moved, so that other compilers never read half an
+     * entry.
+     */
+    void commit(File temp, String key) throws IOException {
+        var entry = file(key);
+        long length = temp.length();
+        synchronized (this) {
+            long replaced = entry.length();
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            size += length - replaced;
+            if (size > maxBytes)
+                evict();
+        }
+    }
+
+    int getEvictions() {
+        return evictions.get();
+    }
+
+    /** Removes the entries used least recently until the directory fits in its limit. */
+    private void evict() {
+        var entries = entries();
+        size = size(entries);
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (var entry : entries) {
+            if (size <= maxBytes)
+                break;
+            long length = entry.length();
+            if (entry.delete()) {
+                size -= length;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private File[] entries() {
+        var entries = directory.listFiles((dir, name) -> name.endsWith(suffix));
+        return entries == null ? new File[0] : entries;
+    }
+
+    private static long size(File[] entries) {
+        long size = 0;
+        for (var entry : entries)
+            size += entry.length();
+        return size;
+    }
+}
@@ -0,0 +1,117 @@
+package crux;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Everything a run of the compiler produced for a whole file, kept on disk so that compiling an unchanged file again
+ * costs no more than reading it: what the run printed on each stream, whether it failed, and the assembly code.
+ * <p>
+ * The key of a file is a hash of its text, the options of the driver and the build of the compiler itself, so that
+ * rebuilding the compiler starts over. The directory holds one file per key and is kept under a size limit by removing
+ * the entries that were used least recently (see {@link CacheDirectory}). Several compilers may share a directory.
+ */
+final class CompilationCache {
+    /** What a run produced. The assembly code is null if the run did not get that far. */
+    static final class Entry {
+        final State state;
+        final String out, err, assembly;
+
+        Entry(State state, String out, String err, String assembly) {
+            this.state = state;
+            this.out = out;
+            this.err = err;
+            this.assembly = assembly;
+        }
+    }
+
+    private static String compilerBuild = null;
+
+    private final CacheDirectory directory;
+    private final AtomicInteger hits = new AtomicInteger(), misses = new AtomicInteger();
+
+    CompilationCache(File directory, long maxBytes) {
+        this.directory = new CacheDirectory(directory, ".entry", maxBytes);
+    }
+
+    String key(String source, String options) {
+        return FunctionCache.hash(compilerBuild() + "\n" + options + "\n" + source);
+    }
+
+    /** Returns the entry of a key, or null, and counts the lookup as a hit or a miss. */
+    Entry load(String key) {
+        var file = directory.file(key);
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            var entry = new Entry(State.valueOf(in.readUTF()), readString(in), readString(in), in.readBoolean() ? readString(in) : null);
+            directory.touch(file);
+            hits.incrementAndGet();
+            return entry;
+        } catch (IOException | IllegalArgumentException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    void store(String key, Entry entry) {
+        try {
+            var temp = directory.createTemp(key);
+            try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeUTF(entry.state.name());
+                writeString(out, entry.out);
+                writeString(out, entry.err);
+                out.writeBoolean(entry.assembly != null);
+                if (entry.assembly != null)
+                    writeString(out, entry.assembly);
+            }
+            directory.commit(temp, key);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("cannot write to cache '%s'", directory.getDirectory()), e);
+        }
+    }
+
+    /** Returns how the cache did so far, for --cache-stats. */
+    String getStatistics() {
+        return String.format("file cache: %d hits, %d misses, %d evicted", hits.get(), misses.get(), directory.getEvictions());
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Identifies the build of the compiler by the names, sizes and times of its class files, or of its jar, for the keys
+     * of this cache and of the {@link FunctionCache}. This is cheap enough to do once per run, unlike hashing their
+     * contents.
+     */
+    static synchronized String compilerBuild() {
+        if (compilerBuild != null)
+            return compilerBuild;
+        var text = new StringBuilder();
+        try {
+            var location = Path.of(CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            try (Stream<Path> files = Files.walk(location)) {
+                files.filter(Files::isRegularFile).sorted().forEach(file -> {
+                    var f = file.toFile();
+                    text.append(location.relativize(file)).append(' ').append(f.length()).append(' ').append(f.lastModified()).append('\n');
+                });
+            }
+        } catch (IOException | URISyntaxException | SecurityException e) {
+            text.append("unknown build");
+        }
+        compilerBuild = FunctionCache.hash(text.toString());
+        return compilerBuild;
+    }
+}
@@ -0,0 +1,377 @@
+package crux;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Compiles, type checks and emulates programs for tools that would otherwise start a new compiler for every request.
+ * The server stays up between requests, so the JVM, the grammar and the JIT are warm, and it keeps one lexer and parser
+ * for all of them. Requests are handled one at a time.
+ * <p>
+ * Tools in the same JVM call {@link #handle}. Other tools run {@code crux --server} and talk to {@link #serve}: one JSON
+ * object per line in each direction, for example
+ * <pre>
+ * {"id": 1, "command": "emulate", "source": "func main() : void { ::printInt(1); }", "input": "", "opt": 2}
+ * {"id": 1, "status": "ok", "output": "1", "diagnostics": [], "millis": 4}
+ * </pre>
+ * A request has a {@code command} (compile, check, emulate or shutdown) and either the {@code source} text or the
+ * {@code file} name of the program. Optional fields are {@code input} (what the emulator reads), {@code output} (the
+ * assembly file, a.s by default), {@code opt} (0 to 2), {@code regalloc}, {@code jit} and {@code timeout}. The {@code id}
+ * of a request, if any, is copied to its response. Diagnostics are the syntax, symbol and type errors of the program,
+ * one per line, in the format the compiler prints them in.
+ * <p>
+ * A program that is still running in the emulator after the timeout of its request is stopped, with the diagnostic
+ * {@code error: timed out after <timeout> ms}, and the server goes on with the next request.
+ */
+public final class CompileServer {
+    public enum Command {
+        COMPILE,
+        CHECK,
+        EMULATE
+    }
+
+    public static final class Request {
+        /** How long the emulator may run by default, in milliseconds. */
+        public static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+        private final Command command;
+        private final String source;
+        private String file;
+        private String input = "";
+        private String outputFile = "a.s";
+        private int optLevel = 0;
+        private boolean regAlloc = false;
+        private boolean jit = false;
+        private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+        /** A request for the program with the given text, which may be null if {@link #setFile} is used instead. */
+        public Request(Command command, String source) {
+            this.command = command;
+            this.source = source;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public void setEmulatorInput(String input) {
+            this.input = input;
+        }
+
+        public void setOutputFile(String outputFile) {
+            this.outputFile = outputFile;
+        }
+
+        public void setOptimizationLevel(int level) {
+            optLevel = level;
+        }
+
+        public void enableRegAlloc() {
+            regAlloc = true;
+        }
+
+        public void enableJit() {
+            jit = true;
+        }
+
+        /** Stops the emulator once the request has run for this many milliseconds. */
+        public void setTimeout(long millis) {
+            timeoutMillis = millis;
+        }
+    }
+
+    public static final class Response {
+        private final boolean ok;
+        private final String output;
+        private final List<String> diagnostics;
+        private final long millis;
+
+        private Response(boolean ok, String output, List<String> diagnostics, long millis) {
+            this.ok = ok;
+            this.output = output;
+            this.diagnostics = diagnostics;
+            this.millis = millis;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        /** What the program printed, for emulate requests. */
+        public String getOutput() {
+            return output;
+        }
+
+        public List<String> getDiagnostics() {
+            return diagnostics;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    /** Compiled last, to hand the lexer and parser on to the next request. */
+    private Driver previous = null;
+    /** Runs the requests, so that the server can stop one that takes too long. */
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+        var thread = new Thread(task, "crux-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public synchronized Response handle(Request request) {
+        long start = System.nanoTime();
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        var driver = new Driver(new PrintStream(out), new PrintStream(err));
+        if (previous != null)
+            driver.reuseParserOf(previous);
+
+        if (request.source != null)
+            driver.setInputStream(new ByteArrayInputStream(request.source.getBytes(StandardCharsets.UTF_8)));
+        else
+            driver.setInputFile(request.file);
+        driver.setOutputFile(request.outputFile);
+        driver.setOptimizationLevel(request.optLevel);
+        if (request.regAlloc)
+            driver.enableRegAlloc();
+        if (request.command == Command.CHECK)
+            driver.enableCheckOnly();
+        if (request.command == Command.EMULATE) {
+            if (request.jit)
+                driver.enableJit();
+            else
+                driver.enableEmulator();
+            driver.setEmulatorInput(new ByteArrayInputStream(request.input.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        State state;
+        Future<State> run = worker.submit(driver::run);
+        try {
+            try {
+                state = run.get(request.timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                driver.cancel();
+                state = run.get();
+            }
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            // Only the program overflowing the stack is its own fault; the server cannot go on after other VM errors
+            if (cause instanceof VirtualMachineError && !(cause instanceof StackOverflowError))
+                throw (VirtualMachineError) cause;
+            if (cause instanceof CancellationException)
+                new PrintStream(err).printf("error: timed out after %d ms%n", request.timeoutMillis);
+            else
+                new PrintStream(err).println("error: " + cause.getMessage());
+            state = State.Error;
+        } catch (InterruptedException e) {
+            driver.cancel();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted", e);
+        }
+        previous = driver;
+
+        var diagnostics = new ArrayList<String>();
+        for (var line : err.toString().split("\\R"))
+            if (!line.isEmpty())
+                diagnostics.add(line);
+        return new Response(state != State.Error, out.toString(), diagnostics, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Answers the JSON requests read from {@code in}, one per line, until a shutdown request or the end of input. */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        var writer = new PrintStream(out, true, StandardCharsets.UTF_8);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank())
+                continue;
+            Object id = null;
+            try {
+                var fields = new JsonReader(line).readObject();
+                id = fields.get("id");
+                var command = String.valueOf(fields.get("command"));
+                if (command.equals("shutdown")) {
+                    writer.println(respond(id, "ok", "", List.of(), 0));
+                    return;
+                }
+                var request = toRequest(command, fields);
+                var response = handle(request);
+                writer.println(respond(id, response.ok ? "ok" : "error", response.output, response.diagnostics, response.millis));
+            } catch (RuntimeException e) {
+                writer.println(respond(id, "error", "", List.of("error: " + e.getMessage()), 0));
+            }
+        }
+    }
+
+    private static Request toRequest(String command, Map<String, Object> fields) {
+        Command kind;
+        switch (command) {
+            case "compile": kind = Command.COMPILE; break;
+            case "check": kind = Command.CHECK; break;
+            case "emulate": kind = Command.EMULATE; break;
+            default: throw new RuntimeException(String.format("unknown command '%s'", command));
+        }
+        var source = (String) fields.get("source");
+        var file = (String) fields.get("file");
+        if (source == null && file == null)
+            throw new RuntimeException("request has neither source nor file");
+        var request = new Request(kind, source);
+        request.setFile(file);
+        if (fields.get("input") != null)
+            request.setEmulatorInput((String) fields.get("input"));
+        if (fields.get("output") != null)
+            request.setOutputFile((String) fields.get("output"));
+        if (fields.get("opt") != null)
+            request.setOptimizationLevel(((Number) fields.get("opt")).intValue());
+        if (Boolean.TRUE.equals(fields.get("regalloc")))
+            request.enableRegAlloc();
+        if (Boolean.TRUE.equals(fields.get("jit")))
+            request.enableJit();
+        if (fields.get("timeout") != null)
+            request.setTimeout(((Number) fields.get("timeout")).longValue());
+        return request;
+    }
+
+    private static String respond(Object id, String status, String output, List<String> diagnostics, long millis) {
+        var sb = new StringBuilder("{");
+        if (id != null)
+            sb.append("\"id\": ").append(id instanceof String ? quote((String) id) : id).append(", ");
+        sb.append("\"status\": ").append(quote(status));
+        sb.append(", \"output\": ").append(quote(output));
+        sb.append(", \"diagnostics\": [");
+        for (int i = 0; i < diagnostics.size(); i++)
+            sb.append(i == 0 ? "" : ", ").append(quote(diagnostics.get(i)));
+        sb.append("], \"millis\": ").append(millis).append("}");
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        var sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /** Reads a JSON object whose values are strings, numbers, booleans or null, which is all a request holds. */
+    private static final class JsonReader {
+        private final String text;
+        private int pos = 0;
+
+        private JsonReader(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> readObject() {
+            var fields = new LinkedHashMap<String, Object>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+                return fields;
+            }
+            do {
+                var name = readString();
+                expect(':');
+                fields.put(name, readValue());
+            } while (accept(','));
+            expect('}');
+            return fields;
+        }
+
+        private Object readValue() {
+            char c = peek();
+            if (c == '"')
+                return readString();
+            if (text.startsWith("true", pos)) {
+                pos += 4;
+                return true;
+            }
+            if (text.startsWith("false", pos)) {
+                pos += 5;
+                return false;
+            }
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-.eE0123456789".indexOf(text.charAt(pos)) >= 0)
+                pos++;
+            if (start == pos)
+                throw new RuntimeException("unexpected JSON at " + start);
+            var number = text.substring(start, pos);
+            return number.matches("-?\\d+") ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        }
+
+        private String readString() {
+            expect('"');
+            var sb = new StringBuilder();
+            while (true) {
+                if (pos >= text.length())
+                    throw new RuntimeException("unterminated JSON string");
+                char c = text.charAt(pos++);
+                if (c == '"')
+                    return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = text.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        private char peek() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+                pos++;
+            if (pos >= text.length())
+                throw new RuntimeException("unexpected end of JSON");
+            return text.charAt(pos);
+        }
+
+        private boolean accept(char c) {
+            if (peek() != c)
+                return false;
+            pos++;
+            return true;
+        }
+
+        private void expect(char c) {
+            if (!accept(c))
+                throw new RuntimeException(String.format("expected '%c' at %d in JSON", c, pos));
+        }
+    }
+}
@@ -1,7 +1,26 @@
 package crux;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public final class Compiler {
     private static Driver driver = new Driver();
+    private static boolean batch = false;
+    private static boolean server = false;
+    private static String functionCache = null;
+    private static long functionCacheLimit = 256;
+    private static String fileCache = null;
+    private static long fileCacheLimit = 256;
+    private static boolean cacheStats = false;
+    private static int jobs = 1;
+    private static final List<String> inputs = new ArrayList<>();
 
     public static void main(String[] args) {
         try {
@@ -9,7 +28,14 @@ public final class Compiler {
                 return;
             }
 
-            var result = driver.run();
+            if (server) {
+                new CompileServer().serve(System.in, System.out);
+                return;
+            }
+
+            var result = batch ? runBatch() : driver.run();
+            if (cacheStats && driver.getFileCacheStatistics() != null)
+                System.err.println(driver.getFileCacheStatistics());
             if (result == State.Error)
                 System.exit(-1);
         } catch (Exception e) {
@@ -46,9 +72,29 @@ public final class Compiler {
                 case "--emulator":
                     driver.enableEmulator();
                     break;
+                case "--jit":
+                    driver.enableJit();
+                    break;
+                case "--tiering":
+                    driver.enableTiering();
+                    break;
                 case "--debug-emulator":
                     driver.enableDebugEmulator();
                     break;
+                case "--regalloc":
+                    driver.enableRegAlloc();
+                    break;
+                case "-O0":
+                case "-O1":
+                case "-O2":
+                    driver.setOptimizationLevel(arg.charAt(2) - '0');
+                    break;
+                case "--opt-report":
+                    driver.enableOptReport();
+                    break;
+                case "--frame-report":
+                    driver.enableFrameReport();
+                    break;
                 case "--emulator-input": {
                     if(driver.hasEmulatorInputFile())
                         throw new RuntimeException("multiple input files");
@@ -56,24 +102,163 @@ public final class Compiler {
                     driver.setEmulatorInputFile(inputFile);
                     break;
                 }
+                case "--cache":
+                    functionCache = args[++i];
+                    break;
+                case "--cache-limit":
+                    functionCacheLimit = Long.parseLong(args[++i]);
+                    break;
+                case "--file-cache":
+                    fileCache = args[++i];
+                    break;
+                case "--file-cache-limit":
+                    fileCacheLimit = Long.parseLong(args[++i]);
+                    break;
+                case "--time-report":
+                    driver.enableTimeReport();
+                    break;
+                case "--time-report-json":
+                    driver.enableTimeReportJson();
+                    break;
+                case "--cache-stats":
+                    cacheStats = true;
+                    break;
+                case "--batch":
+                    batch = true;
+                    break;
+                case "--server":
+                    server = true;
+                    break;
+                case "--jobs":
+                    jobs = Integer.parseInt(args[++i]);
+                    if (jobs < 1)
+                        throw new RuntimeException("--jobs needs at least one job");
+                    break;
                 default:
                     if (arg.startsWith("-"))
                         throw new RuntimeException(String.format("unrecognized command line option '%s'", arg));
-                    if (driver.hasInputFile())
-                        throw new RuntimeException(String.format("multiple input files: '%s' and '%s'", driver.getInputFile(), arg));
-                    driver.setInputFile(arg);
+                    inputs.add(arg);
                     break;
             }
         }
 
-        if (!driver.hasInputFile())
+        if (jobs != 1 && !batch)
+            throw new RuntimeException("--jobs only applies to --batch");
+        if (functionCache != null)
+            driver.setCacheDirectory(functionCache, functionCacheLimit * 1024 * 1024);
+        if (fileCache != null)
+            driver.setFileCache(fileCache, fileCacheLimit * 1024 * 1024);
+        if (server)
+            return true;
+        if (inputs.isEmpty())
             throw new RuntimeException("no input file.");
+        if (!batch) {
+            if (inputs.size() > 1)
+                throw new RuntimeException(String.format("multiple input files: '%s' and '%s'", inputs.get(0), inputs.get(1)));
+            driver.setInputFile(inputs.get(0));
+        }
 
         return true;
     }
 
+    /**
+     * Compiles every input file, and every .crx file in an input directory, with the one driver, which keeps its
+     * parser warm between files. The assembly code of foo.crx goes to foo.s.
+     * <p>
+     * With more than one job, every file gets its own copy of the driver instead, and the files are compiled on that
+     * many threads. What each file prints is buffered and shown in the order of the files.
+     * <p>
+     * A file that fails, even with an exception, is reported and the batch goes on with the next one.
+     */
+    private static State runBatch() {
+        var files = new ArrayList<String>();
+        for (var input : inputs)
+            collectSources(new File(input), files);
+
+        var failed = new ArrayList<String>();
+        if (jobs == 1) {
+            for (var file : files) {
+                driver.setInputFile(file);
+                driver.setOutputFile(assemblyFile(file));
+                try {
+                    if (driver.run() == State.Error)
+                        failed.add(file);
+                } catch (RuntimeException e) {
+                    System.err.printf("error: %s: %s%n", file, e.getMessage());
+                    failed.add(file);
+                }
+            }
+        } else {
+            var pool = Executors.newFixedThreadPool(jobs);
+            try {
+                var results = new ArrayList<Future<BatchResult>>();
+                for (var file : files)
+                    results.add(pool.submit(() -> compile(file)));
+                for (int i = 0; i < files.size(); i++) {
+                    try {
+                        var result = results.get(i).get();
+                        System.out.print(result.out);
+                        System.err.print(result.err);
+                        if (result.state == State.Error)
+                            failed.add(files.get(i));
+                    } catch (ExecutionException e) {
+                        System.err.printf("error: %s: %s%n", files.get(i), e.getCause().getMessage());
+                        failed.add(files.get(i));
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException("interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        for (var file : failed)
+            System.err.printf("error: cannot compile '%s'%n", file);
+        return failed.isEmpty() ? State.Finished : State.Error;
+    }
+
+    private static String assemblyFile(String sourceFile) {
+        return sourceFile.replaceFirst("\\.crx$", "") + ".s";
+    }
+
+    private static final class BatchResult {
+        private final State state;
+        private final String out, err;
+
+        private BatchResult(State state, String out, String err) {
+            this.state = state;
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private static BatchResult compile(String file) {
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        var fileDriver = driver.withOutput(new PrintStream(out), new PrintStream(err));
+        fileDriver.setInputFile(file);
+        fileDriver.setOutputFile(assemblyFile(file));
+        var state = fileDriver.run();
+        return new BatchResult(state, out.toString(), err.toString());
+    }
+
+    private static void collectSources(File input, List<String> files) {
+        if (!input.isDirectory()) {
+            files.add(input.getPath());
+            return;
+        }
+        var children = input.listFiles();
+        Arrays.sort(children);
+        for (var child : children) {
+            if (child.isDirectory() || child.getName().endsWith(".crx"))
+                collectSources(child, files);
+        }
+    }
+
     private static void displayHelp() {
         System.out.println("usage: <crux> [options] [file]");
+        System.out.println("       <crux> [options] --batch [files or directories]");
+        System.out.println("       <crux> --server");
         System.out.println("options:");
         System.out.println("--help\t\t\t\tDisplay this information.");
         System.out.println("--authors\t\t\tDisplay the list of authors.");
@@ -82,8 +267,24 @@ public final class Compiler {
         System.out.println("--print-pt\t\t\tPrint the parse tree to stdout.");
         System.out.println("--print-ast\t\t\tPrint the abstract syntax tree to stdout.");
         System.out.println("--emulator\t\t\tRun Emulator on IR.");
+        System.out.println("--jit\t\t\t\tRun the IR like --emulator, compiled to JVM bytecode.");
+        System.out.println("--tiering\t\t\tLet the emulator compile hot functions to JVM bytecode.");
         System.out.println("--debug-emulator\t\t\tRun Emulator on IR with debugging turned on.");
         System.out.println("--emulator-input <input file>\t\t\tInput File for the emulator");
+        System.out.println("--batch <files or directories>\tCompile many files in one run, each foo.crx to foo.s.");
+        System.out.println("--jobs <n>\t\t\tCompile the files of a --batch on n threads (default 1).");
+        System.out.println("--server\t\t\tAnswer compile, check and emulate requests, one JSON object per line on stdin.");
+        System.out.println("--cache <directory>\t\tReuse the code of functions that did not change since an earlier run.");
+        System.out.println("--cache-limit <MB>\t\tSize of the --cache, least recently used functions go first (default 256).");
+        System.out.println("--file-cache <directory>\tReuse the output of files compiled before with the same options.");
+        System.out.println("--file-cache-limit <MB>\t\tSize of the --file-cache, least recently used files go first (default 256).");
+        System.out.println("--cache-stats\t\t\tPrint the hits and misses of the --file-cache at the end.");
+        System.out.println("--time-report\t\t\tPrint the wall time, CPU time and allocation of each stage to stderr.");
+        System.out.println("--time-report-json\t\tLike --time-report, as one JSON object per file.");
+        System.out.println("-O0, -O1, -O2\t\t\tOptimization level of the IR (default -O0).");
+        System.out.println("--opt-report\t\t\tPrint the number of instructions each optimization removed per function.");
+        System.out.println("--regalloc\t\t\tKeep variables in registers (linear scan) instead of stack slots.");
+        System.out.println("--frame-report\t\t\tPrint the frame size of each function with and without shared stack slots.");
     }
 
     private static void displayAuthors() {
@@ -3,14 +3,17 @@ package crux;
 import crux.frontend.ANTLRErrorRecorder;
 import crux.frontend.ParseTreeLower;
 import crux.frontend.ast.DeclarationList;
+import crux.frontend.ast.FunctionDefinition;
 import crux.frontend.pt.CruxLexer;
 import crux.frontend.pt.CruxParser;
 import crux.frontend.types.TypeChecker;
 import crux.midend.ASTLower;
+import crux.midend.opt.PassManager;
 import crux.printing.IRPrinter;
 import crux.midend.ir.core.Program;
 import crux.midend.ir.core.Emulator;
 import crux.backend.CodeGen;
+import crux.backend.JitCompiler;
 import crux.printing.ASTPrinter;
 import crux.printing.ParseTreePrinter;
 import org.antlr.v4.runtime.CharStream;
@@ -18,24 +21,17 @@ import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.function.Supplier;
 
-enum State {
-    Continue,
-    Finished,
-    Error;
-
-    State then(Supplier<State> nextStage) {
-        if (this == Continue)
-            return nextStage.get();
-        return this;
-    }
-
-    State complete() {
-        return this == Finished ? Finished : Error;
-    }
-}
-
 /**
  * The driver that runs the various stages of the compilation.
  * <p>
@@ -43,25 +39,53 @@ enum State {
  */
 public final class Driver {
     private final InputStream in;
-    private final PrintStream out;
-    private final PrintStream err;
+    /** Only replaced while the file cache records a run. */
+    private PrintStream out;
+    private PrintStream err;
 
     private boolean printPt = false;
     private boolean printAst = false;
     private boolean includeTypes = false;
     private boolean typeCheck = false;
+    private boolean checkOnly = false;
     private boolean printIR = false;
     private boolean runEmulator = false;
+    private boolean debugEmulator = false;
+    private boolean runJit = false;
+    private boolean tiering = false;
+    private int tierUpCalls = Emulator.TIER_UP_CALLS, tierUpBackEdges = Emulator.TIER_UP_BACK_EDGES;
+    private boolean regAlloc = false;
+    private int optLevel = 0;
+    private boolean optReport = false;
+    private boolean frameReport = false;
+    private boolean timeReport = false;
+    private boolean timeReportJson = false;
+    private final List<StageTiming.Listener> stageListeners = new ArrayList<>();
 
     private String inputFile;
     private InputStream inputStream;
+    private String outputFile = "a.s";
     private String emulatorInputFile = null;
     private InputStream emulatorInputStream = null;
+    private FunctionCache functionCache = null;
+    private CompilationCache fileCache = null;
+
+    /** Kept across runs, so that compiling several files does not build a new lexer and parser for each. */
+    private CruxLexer lexer;
+    private CruxParser parser;
 
     private CruxParser.ProgramContext parseTree;
     private DeclarationList ast;
     private Program irProgram;
     private TypeChecker typeChecker;
+    /** With a cache, the keys of all functions and the code of those found in it. */
+    private FunctionCache cache;
+    private Map<FunctionDefinition, String> functionKeys = Map.of();
+    private Map<String, String> cachedCode = Map.of();
+    private boolean emittedAssembly = false;
+    /** Stops the emulator of the run in progress, once there is one (see {@link #cancel}). */
+    private volatile Runnable canceller = null;
+    private volatile boolean cancelled = false;
   
     Driver() {
         this(System.in, System.out, System.err);
@@ -77,6 +101,41 @@ public final class Driver {
         this.err = err;
     }
 
+    /**
+     * Returns a new driver with all the options and inputs of this one, but writing to the given streams. Drivers share
+     * no state, so the copies can compile different files in parallel.
+     */
+    Driver withOutput(PrintStream out, PrintStream err) {
+        var copy = new Driver(in, out, err);
+        copy.printPt = printPt;
+        copy.printAst = printAst;
+        copy.includeTypes = includeTypes;
+        copy.typeCheck = typeCheck;
+        copy.checkOnly = checkOnly;
+        copy.printIR = printIR;
+        copy.runEmulator = runEmulator;
+        copy.debugEmulator = debugEmulator;
+        copy.runJit = runJit;
+        copy.tiering = tiering;
+        copy.tierUpCalls = tierUpCalls;
+        copy.tierUpBackEdges = tierUpBackEdges;
+        copy.regAlloc = regAlloc;
+        copy.optLevel = optLevel;
+        copy.optReport = optReport;
+        copy.frameReport = frameReport;
+        copy.timeReport = timeReport;
+        copy.timeReportJson = timeReportJson;
+        copy.stageListeners.addAll(stageListeners);
+        copy.inputFile = inputFile;
+        copy.inputStream = inputStream;
+        copy.outputFile = outputFile;
+        copy.emulatorInputFile = emulatorInputFile;
+        copy.emulatorInputStream = emulatorInputStream;
+        copy.functionCache = functionCache;
+        copy.fileCache = fileCache;
+        return copy;
+    }
+
     public void enablePrintParseTree() {
         printPt = true;
     }
@@ -93,15 +152,75 @@ public final class Driver {
         typeCheck = true;
     }
 
+    /** Stops after type checking like --check-types, but reports errors only on the error stream. */
+    void enableCheckOnly() {
+        checkOnly = true;
+    }
+
+    /** Takes over the lexer and parser of another driver, so that they are not built again. */
+    void reuseParserOf(Driver other) {
+        lexer = other.lexer;
+        parser = other.parser;
+    }
+
     public void enablePrintIR() { printIR = true; }
 
     public void enableEmulator() {
         runEmulator = true;
     }
 
+    /** Runs the program like the emulator does, but translated to JVM bytecode (see {@link JitCompiler}). */
+    public void enableJit() {
+        runJit = true;
+    }
+
+    /** Lets the emulator switch hot functions to compiled code (see {@link Emulator#enableTiering}). */
+    public void enableTiering() {
+        tiering = true;
+    }
+
+    /** Changes how hot a function gets before the emulator compiles it (see {@link Emulator#setTierUpThresholds}). */
+    public void setTierUpThresholds(int calls, int backEdges) {
+        tierUpCalls = calls;
+        tierUpBackEdges = backEdges;
+    }
+
     public void enableDebugEmulator() {
         runEmulator = true;
-        Emulator.DEBUG = true;
+        debugEmulator = true;
+    }
+
+    public void enableRegAlloc() {
+        regAlloc = true;
+    }
+
+    public void setOptimizationLevel(int level) {
+        optLevel = level;
+    }
+
+    public void enableOptReport() {
+        optReport = true;
+    }
+
+    /** Prints the frame size of every function with and without sharing stack slots on the error stream. */
+    public void enableFrameReport() {
+        frameReport = true;
+    }
+
+    /** Prints how long each stage took, and how much it allocated, on the error stream after every run. */
+    public void enableTimeReport() {
+        timeReport = true;
+    }
+
+    /** Prints the time report as one JSON object per run instead of a table. */
+    public void enableTimeReportJson() {
+        timeReport = true;
+        timeReportJson = true;
+    }
+
+    /** Tells a listener about every stage of every later run. Copies of this driver tell it too, from their threads. */
+    public void addStageListener(StageTiming.Listener listener) {
+        stageListeners.add(listener);
     }
 
     public boolean hasInputFile() {
@@ -116,6 +235,34 @@ public final class Driver {
         this.inputFile = inputFile;
     }
 
+    /** Sets the file the assembly code is written to, which is a.s by default. */
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Keeps the assembly code of every function in a directory of at most {@code maxBytes}, so that functions that did
+     * not change since an earlier run are neither checked nor generated again (see {@link FunctionCache}). Only used when
+     * compiling to assembly.
+     */
+    public void setCacheDirectory(String directory, long maxBytes) {
+        functionCache = new FunctionCache(new File(directory), maxBytes);
+    }
+
+    /**
+     * Keeps what compiling a whole file produced in a directory of at most {@code maxBytes}, so that compiling the same
+     * file with the same options again only reads it back (see {@link CompilationCache}). Runs of the emulator are not
+     * cached.
+     */
+    public void setFileCache(String directory, long maxBytes) {
+        fileCache = new CompilationCache(new File(directory), maxBytes);
+    }
+
+    /** Returns the hits and misses of the file cache so far, or null without one. */
+    public String getFileCacheStatistics() {
+        return fileCache == null ? null : fileCache.getStatistics();
+    }
+
     public void setInputStream(InputStream inputStream) {
         this.inputStream = inputStream;
     }
@@ -130,22 +277,122 @@ public final class Driver {
 
     public boolean hasEmulatorInputFile() { return emulatorInputFile != null; }
 
+    /**
+     * Stops the emulator of a run in progress from another thread, at the next call or loop of the program, and the
+     * run throws a {@link java.util.concurrent.CancellationException}. The stages before the emulator run to the end.
+     */
+    public void cancel() {
+        cancelled = true;
+        var cancel = canceller;
+        if (cancel != null)
+            cancel.run();
+    }
+
     public State run() {
-        return parse()
-                .then(this::makeAST)
-                .then(this::typeCheck)
-                .then(this::emitIR)
-                .then(this::emulator)
-                .then(this::emitASM)
+        var report = timeReport ? new StageTiming.Report() : null;
+        if (report != null)
+            stageListeners.add(report);
+        try {
+            var input = openInput();
+            if (fileCache != null && !runEmulator && !runJit)
+                return runCached(input);
+            return run(input);
+        } finally {
+            if (report != null) {
+                stageListeners.remove(report);
+                report.print(err, inputFile, timeReportJson);
+            }
+        }
+    }
+
+    private State run(CharStream input) {
+        return timed("parse", () -> parse(input)).get()
+                .then(timed("makeAST", this::makeAST))
+                .then(timed("typeCheck", this::typeCheck))
+                .then(timed("emitIR", this::emitIR))
+                .then(runEmulator || runJit ? timed("emulator", this::emulator) : timed("emitASM", this::emitASM))
                 .complete();
     }
 
-    private State parse() {
-        var input = openInput();
-        var lexer = new CruxLexer(input);
-        var tokenStream = new CommonTokenStream(lexer);
+    /** Measures a stage for the listeners, if there are any. */
+    private Supplier<State> timed(String stage, Supplier<State> body) {
+        if (stageListeners.isEmpty())
+            return body;
+        return () -> {
+            long wall = System.nanoTime(), cpu = StageTiming.cpuTime(), allocated = StageTiming.allocatedBytes();
+            try {
+                return body.get();
+            } finally {
+                var timing = new StageTiming(stage, System.nanoTime() - wall,
+                        cpu < 0 ? -1 : StageTiming.cpuTime() - cpu,
+                        allocated < 0 ? -1 : StageTiming.allocatedBytes() - allocated);
+                for (var listener : stageListeners)
+                    listener.stageFinished(timing);
+            }
+        };
+    }
+
+    /**
+     * Runs with the file cache: replays what an earlier run with the same input printed and wrote, or runs and records
+     * that for the next time.
+     */
+    private State runCached(CharStream input) {
+        var key = fileCache.key(input.toString(), options());
+        var entry = fileCache.load(key);
+        if (entry == null) {
+            var realOut = out;
+            var realErr = err;
+            var outBuffer = new ByteArrayOutputStream();
+            var errBuffer = new ByteArrayOutputStream();
+            out = new PrintStream(outBuffer);
+            err = new PrintStream(errBuffer);
+            State state;
+            emittedAssembly = false;
+            try {
+                state = run(input);
+            } finally {
+                out = realOut;
+                err = realErr;
+            }
+            entry = new CompilationCache.Entry(state, outBuffer.toString(), errBuffer.toString(),
+                    emittedAssembly ? readOutputFile() : null);
+            fileCache.store(key, entry);
+        } else if (entry.assembly != null) {
+            try (var assembly = new PrintStream(outputFile)) {
+                assembly.print(entry.assembly);
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("cannot write file '%s'", outputFile), e);
+            }
+        }
+        out.print(entry.out);
+        err.print(entry.err);
+        return entry.state;
+    }
+
+    /** The options that change what a run produces, for the key of the file cache. */
+    private String options() {
+        return String.format("pt=%b ast=%b types=%b check=%b checkOnly=%b ir=%b regalloc=%b O%d report=%b frames=%b",
+                printPt, printAst, includeTypes, typeCheck, checkOnly, printIR, regAlloc, optLevel, optReport,
+                frameReport);
+    }
+
+    private String readOutputFile() {
+        try {
+            return Files.readString(Path.of(outputFile), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("cannot read file '%s'", outputFile), e);
+        }
+    }
+
+    private State parse(CharStream input) {
+        if (lexer == null) {
+            lexer = new CruxLexer(input);
+            parser = new CruxParser(new CommonTokenStream(lexer));
+        } else {
+            lexer.setInputStream(input);
+            parser.setTokenStream(new CommonTokenStream(lexer));
+        }
 
-        var parser = new CruxParser(tokenStream);
         parser.removeErrorListeners();
         var errorRecorder = new ANTLRErrorRecorder();
         parser.addErrorListener(errorRecorder);
@@ -189,8 +436,9 @@ public final class Driver {
     }
 
     private State typeCheck() {
+        lookUpCache();
         typeChecker = new TypeChecker();
-        typeChecker.check(ast);
+        typeChecker.check(ast, cachedFunctions());
 
         if (typeCheck) {
             if (typeChecker.getErrors().isEmpty()) {
@@ -208,12 +456,16 @@ public final class Driver {
             return State.Error;
         }
 
-        return typeCheck ? State.Finished : State.Continue;
+        return typeCheck || checkOnly ? State.Finished : State.Continue;
     }
 
     private State emitIR() {
         var astLower = new ASTLower(typeChecker);
-        irProgram = astLower.lower(ast);
+        irProgram = astLower.lower(ast, cachedFunctions());
+        var passManager = PassManager.forLevel(optLevel);
+        if (optReport)
+            passManager.enableReport(err);
+        passManager.run(irProgram);
 
         if(printIR) {
             var printer = new IRPrinter(out);
@@ -225,16 +477,44 @@ public final class Driver {
     }
 
     private State emitASM() {
-        var codegen = new CodeGen(irProgram);
+        var codegen = new CodeGen(irProgram, outputFile);
+        if (regAlloc)
+            codegen.enableRegAlloc();
+        if (frameReport)
+            codegen.enableFrameReport(err);
+        codegen.usePrecompiled(cachedCode);
+        if (cache != null)
+            codegen.keepFunctionCode();
         codegen.genCode();
-        
+        emittedAssembly = true;
+        if (cache != null) {
+            for (var entry : functionKeys.entrySet()) {
+                var name = entry.getKey().getSymbol().getName();
+                if (!cachedCode.containsKey(name))
+                    cache.store(entry.getValue(), codegen.getFunctionCode().get(name));
+            }
+        }
+
         return State.Finished;
     }
 
     private State emulator() {
+        if (runJit) {
+            var jit = new JitCompiler(irProgram, openEmulatorInput(), out);
+            onCancel(jit::cancel);
+            jit.run();
+            return State.Finished;
+        }
         if (runEmulator) {
             var emulatorInput = openEmulatorInput();
             var emulator = new Emulator(irProgram, emulatorInput, out);
+            if (debugEmulator)
+                emulator.enableDebug();
+            if (tiering) {
+                emulator.enableTiering(JitCompiler::tierCompiler);
+                emulator.setTierUpThresholds(tierUpCalls, tierUpBackEdges);
+            }
+            onCancel(emulator::cancel);
             emulator.run();
             return State.Finished;
         }
@@ -242,6 +522,36 @@ public final class Driver {
         return State.Continue;
     }
 
+    /** Makes {@link #cancel} stop the emulator about to run, or stops it right away if that already happened. */
+    private void onCancel(Runnable cancel) {
+        canceller = cancel;
+        if (cancelled)
+            cancel.run();
+    }
+
+    /** Finds the functions whose code is in the cache, when there is one and the program is compiled to assembly. */
+    private void lookUpCache() {
+        cache = null;
+        functionKeys = Map.of();
+        cachedCode = Map.of();
+        if (functionCache == null || typeCheck || checkOnly || printIR || runEmulator || runJit)
+            return;
+        cache = functionCache;
+        functionKeys = cache.keys(parseTree, parser.getTokenStream(), ast, "O" + optLevel + (regAlloc ? " regalloc" : ""));
+        cachedCode = new HashMap<>();
+        for (var entry : functionKeys.entrySet()) {
+            var code = cache.load(entry.getValue());
+            if (code != null)
+                cachedCode.put(entry.getKey().getSymbol().getName(), code);
+        }
+    }
+
+    private Set<FunctionDefinition> cachedFunctions() {
+        return functionKeys.keySet().stream()
+                .filter(f -> cachedCode.containsKey(f.getSymbol().getName()))
+                .collect(Collectors.toSet());
+    }
+
     private CharStream openInput() {
         if (inputStream == null) {
             try {
@@ -0,0 +1,122 @@
+package crux;
+
+import crux.frontend.Symbol;
+import crux.frontend.ast.*;
+import crux.frontend.pt.CruxParser;
+import org.antlr.v4.runtime.TokenStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The assembly code of single functions, kept on disk between runs so that only the functions that changed are checked,
+ * lowered and generated again.
+ * <p>
+ * The code of a function depends on nothing but its own tokens, the names and types of the globals and functions it
+ * refers to, and the build and options of the compiler. A hash of these is the key of the function, and the code is
+ * stored in the file named after the key. The directory is kept under a size limit by removing the functions used least
+ * recently (see {@link CacheDirectory}), which soon drops those of changed functions and of other builds of the compiler.
+ */
+final class FunctionCache {
+    private final CacheDirectory directory;
+
+    FunctionCache(File directory, long maxBytes) {
+        this.directory = new CacheDirectory(directory, ".s", maxBytes);
+    }
+
+    /**
+     * Returns the key of every function definition of a program, in source order. The parse tree and the AST must be of
+     * the same program, which has no errors.
+     */
+    Map<FunctionDefinition, String> keys(CruxParser.ProgramContext parseTree, TokenStream tokens, DeclarationList ast, String options) {
+        var contexts = new ArrayList<CruxParser.FunctionDefinitionContext>();
+        for (var declaration : parseTree.declarationList().declaration())
+            if (declaration.functionDefinition() != null)
+                contexts.add(declaration.functionDefinition());
+
+        var keys = new LinkedHashMap<FunctionDefinition, String>();
+        int index = 0;
+        for (Node declaration : ast.getChildren()) {
+            if (!(declaration instanceof FunctionDefinition))
+                continue;
+            var function = (FunctionDefinition) declaration;
+            var context = contexts.get(index++);
+
+            var text = new StringBuilder(CompilationCache.compilerBuild()).append('\n').append(options).append('\n');
+            for (int i = context.getStart().getTokenIndex(); i <= context.getStop().getTokenIndex(); i++)
+                text.append(tokens.get(i).getText()).append(' ');
+            text.append('\n');
+            for (var reference : references(function))
+                text.append(reference).append('\n');
+            keys.put(function, hash(text.toString()));
+        }
+        return keys;
+    }
+
+    /** Returns the cached code of a key, or null. */
+    String load(String key) {
+        var file = directory.file(key);
+        if (!file.isFile())
+            return null;
+        try {
+            var code = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+            directory.touch(file);
+            return code;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void store(String key, String code) {
+        try {
+            var temp = directory.createTemp(key);
+            Files.writeString(temp.toPath(), code, StandardCharsets.UTF_8);
+            directory.commit(temp, key);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("cannot write to cache '%s'", directory.getDirectory()), e);
+        }
+    }
+
+    /** The names and types of the symbols a function uses but does not declare, sorted. */
+    private static SortedSet<String> references(FunctionDefinition function) {
+        var declared = new HashSet<Symbol>(function.getParameters());
+        var used = new ArrayList<Symbol>();
+        var pending = new ArrayDeque<Node>();
+        pending.push(function.getStatements());
+        while (!pending.isEmpty()) {
+            var node = pending.pop();
+            if (node instanceof VariableDeclaration)
+                declared.add(((VariableDeclaration) node).getSymbol());
+            else if (node instanceof Name)
+                used.add(((Name) node).getSymbol());
+            else if (node instanceof Call)
+                used.add(((Call) node).getCallee());
+            for (var child : node.getChildren())
+                if (child != null)
+                    pending.push(child);
+        }
+
+        var references = new TreeSet<String>();
+        for (var symbol : used)
+            if (!declared.contains(symbol))
+                references.add(symbol.getName() + " : " + symbol.getType());
+        return references;
+    }
+
+    static String hash(String text) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            var hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("SHA-256 is not available", e);
+        }
+    }
+}
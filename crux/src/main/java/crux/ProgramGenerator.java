@@ -0,0 +1,276 @@
+package crux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes up valid, type correct Crux programs of any size, to find out how the compiler scales. The same seed and
+ * settings always give the same program.
+ * <p>
+ * Every program runs to the end and prints the same on every backend. Loops count a variable of their own up to a small
+ * bound, a function only calls functions defined before it and only while its depth argument is positive, array
+ * indices are constants or loop counters below the size of the array, divisors are non-zero constants, and every
+ * variable and array is written before it is read.
+ * <p>
+ * Run it with {@code java crux.ProgramGenerator [--functions n] [--statements n] [--nesting n] [--expression-length n]
+ * [--array-size n] [--seed n]} to print a program.
+ */
+public final class ProgramGenerator {
+    private static final int LOOP_BOUND = 3;
+    private static final int PARAMETERS = 3;
+    private static final int LOCALS = 4;
+    private static final int GLOBALS = 4;
+    private static final int ARRAYS = 2;
+    private static final int BLOCK_STATEMENTS = 4;
+
+    private int functions = 100;
+    private int statements = 8;
+    private int nesting = 3;
+    private int expressionLength = 4;
+    private int arraySize = 64;
+    private long seed = 0;
+
+    private Random random;
+    private StringBuilder out;
+    /** Per function: how many loop counters it needs, and the counters of the loops around the current statement. */
+    private int counters;
+    private final List<String> activeCounters = new ArrayList<>();
+    private boolean inCallBlock;
+    private int currentFunction;
+
+    /** The number of functions besides main. */
+    public ProgramGenerator setFunctions(int functions) {
+        this.functions = functions;
+        return this;
+    }
+
+    /** The number of statements at the top of each function; nested blocks get at most four. */
+    public ProgramGenerator setStatements(int statements) {
+        this.statements = statements;
+        return this;
+    }
+
+    /** How deeply ifs and loops nest. Loops nest at most twice, so that running the program stays cheap. */
+    public ProgramGenerator setNesting(int nesting) {
+        this.nesting = nesting;
+        return this;
+    }
+
+    /** The number of operands in the longest expressions. */
+    public ProgramGenerator setExpressionLength(int expressionLength) {
+        this.expressionLength = expressionLength;
+        return this;
+    }
+
+    /** The number of elements of each global array, which main fills in a loop first. */
+    public ProgramGenerator setArraySize(int arraySize) {
+        this.arraySize = arraySize;
+        return this;
+    }
+
+    public ProgramGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public String generate() {
+        random = new Random(seed);
+        out = new StringBuilder();
+        for (int g = 0; g < GLOBALS; g++)
+            out.append(String.format("var g%d : int;%n", g));
+        for (int a = 0; a < ARRAYS; a++)
+            out.append(String.format("array a%d : int[%d];%n", a, arraySize));
+        for (int f = 0; f < functions; f++)
+            function(f);
+        main();
+        return out.toString();
+    }
+
+    private void function(int f) {
+        currentFunction = f;
+        counters = 0;
+        out.append(String.format("%nfunc f%d(d : int", f));
+        for (int p = 0; p < PARAMETERS; p++)
+            out.append(String.format(", p%d : int", p));
+        out.append(") : int {\n");
+
+        var body = new StringBuilder();
+        var outer = out;
+        out = body;
+        for (int s = 0; s < statements; s++)
+            statement(1, 0);
+        if (f > 0) {
+            line(1, "if (d > 0) {");
+            inCallBlock = true;
+            for (int s = 0; s < 2; s++)
+                line(2, String.format("let v%d = v%d + %s;", random.nextInt(LOCALS), random.nextInt(LOCALS), call()));
+            inCallBlock = false;
+            line(1, "}");
+        }
+        line(1, String.format("return %s;", intExpression(expressionLength)));
+        out = outer;
+
+        for (int v = 0; v < LOCALS; v++) {
+            line(1, String.format("var v%d : int;", v));
+            line(1, String.format("let v%d = p%d + %d;", v, v % PARAMETERS, random.nextInt(100)));
+        }
+        line(1, "var b0 : bool;");
+        line(1, String.format("let b0 = p0 < p%d;", 1 + random.nextInt(PARAMETERS - 1)));
+        for (int c = 0; c < counters; c++) {
+            line(1, String.format("var c%d : int;", c));
+            line(1, String.format("let c%d = 0;", c));
+        }
+        out.append(body).append("}\n");
+    }
+
+    private void main() {
+        out.append("\nfunc main() : void {\n");
+        line(1, "var i : int;");
+        for (int g = 0; g < GLOBALS; g++)
+            line(1, String.format("let g%d = %d;", g, random.nextInt(100)));
+        for (int a = 0; a < ARRAYS; a++) {
+            line(1, "let i = 0;");
+            line(1, String.format("while (i < %d) {", arraySize));
+            line(2, String.format("let a%d[i] = i * %d;", a, a + 1));
+            line(2, "let i = i + 1;");
+            line(1, "}");
+        }
+        for (int f = Math.max(0, functions - 4); f < functions; f++) {
+            line(1, String.format("::printInt(::f%d(2, %d, %d, %d));", f, random.nextInt(100), random.nextInt(100), random.nextInt(100)));
+            line(1, "::println();");
+        }
+        out.append("}\n");
+    }
+
+    private void statement(int indent, int depth) {
+        int kind = random.nextInt(depth < nesting ? 6 : 4);
+        switch (kind) {
+            case 0:
+            case 1:
+                line(indent, String.format("let v%d = %s;", random.nextInt(LOCALS), intExpression(1 + random.nextInt(expressionLength))));
+                break;
+            case 2:
+                if (random.nextBoolean())
+                    line(indent, String.format("let b0 = %s;", boolExpression(expressionLength)));
+                else
+                    line(indent, String.format("let g%d = %s;", random.nextInt(GLOBALS), intExpression(2)));
+                break;
+            case 3:
+                line(indent, String.format("let a%d[%s] = %s;", random.nextInt(ARRAYS), index(), intExpression(2)));
+                break;
+            case 4:
+                line(indent, String.format("if %s {", boolExpression(2)));
+                block(indent + 1, depth + 1);
+                if (random.nextBoolean()) {
+                    line(indent, "} else {");
+                    block(indent + 1, depth + 1);
+                }
+                line(indent, "}");
+                break;
+            default:
+                if (activeCounters.size() >= 2) {
+                    line(indent, String.format("let v%d = %s;", random.nextInt(LOCALS), intExpression(expressionLength)));
+                    break;
+                }
+                var counter = "c" + counters++;
+                line(indent, String.format("let %s = 0;", counter));
+                line(indent, String.format("while (%s < %d) {", counter, Math.min(LOOP_BOUND, arraySize)));
+                activeCounters.add(counter);
+                block(indent + 1, depth + 1);
+                activeCounters.remove(counter);
+                line(indent + 1, String.format("let %s = %s + 1;", counter, counter));
+                line(indent, "}");
+        }
+    }
+
+    private void block(int indent, int depth) {
+        // Bounded, so that the size of a program grows linearly with every setting.
+        int count = 1 + random.nextInt(Math.max(1, Math.min(BLOCK_STATEMENTS, statements / (depth + 1))));
+        for (int s = 0; s < count; s++)
+            statement(indent, depth);
+    }
+
+    private String intExpression(int length) {
+        var sb = new StringBuilder(intOperand());
+        for (int i = 1; i < length; i++) {
+            switch (random.nextInt(4)) {
+                case 0: sb.append(" + ").append(intOperand()); break;
+                case 1: sb.append(" - ").append(intOperand()); break;
+                case 2: sb.append(" * ").append(intOperand()); break;
+                default: sb.append(" / ").append(1 + random.nextInt(9));
+            }
+        }
+        return length > 1 && random.nextBoolean() ? "(" + sb + ")" : sb.toString();
+    }
+
+    private String intOperand() {
+        switch (random.nextInt(inCallBlock ? 7 : 6)) {
+            case 0: return Integer.toString(random.nextInt(100));
+            case 1: return "v" + random.nextInt(LOCALS);
+            case 2: return "p" + random.nextInt(PARAMETERS);
+            case 3: return "g" + random.nextInt(GLOBALS);
+            case 4: return String.format("a%d[%s]", random.nextInt(ARRAYS), index());
+            case 5: return "d";
+            default: return call();
+        }
+    }
+
+    private String call() {
+        var sb = new StringBuilder(String.format("::f%d(d - 1", random.nextInt(currentFunction)));
+        for (int p = 0; p < PARAMETERS; p++)
+            sb.append(", ").append(random.nextBoolean() ? "v" + random.nextInt(LOCALS) : Integer.toString(random.nextInt(100)));
+        return sb.append(")").toString();
+    }
+
+    private String index() {
+        if (!activeCounters.isEmpty() && random.nextBoolean())
+            return activeCounters.get(random.nextInt(activeCounters.size()));
+        return Integer.toString(random.nextInt(arraySize));
+    }
+
+    private String boolExpression(int length) {
+        var sb = new StringBuilder(boolOperand());
+        for (int i = 1; i < length; i++)
+            sb.append(random.nextBoolean() ? " and " : " or ").append(boolOperand());
+        return "(" + sb + ")";
+    }
+
+    private String boolOperand() {
+        switch (random.nextInt(5)) {
+            case 0: return "b0";
+            case 1: return random.nextBoolean() ? "true" : "false";
+            case 2: return "not " + (random.nextBoolean() ? "b0" : "(" + comparison() + ")");
+            // and and or bind like * and +, tighter than comparisons.
+            default: return "(" + comparison() + ")";
+        }
+    }
+
+    private String comparison() {
+        var operators = new String[] {"<", "<=", ">", ">=", "==", "!="};
+        return intExpression(2) + " " + operators[random.nextInt(operators.length)] + " " + intExpression(2);
+    }
+
+    private void line(int indent, String text) {
+        out.append("    ".repeat(indent)).append(text).append('\n');
+    }
+
+    public static void main(String[] args) {
+        var generator = new ProgramGenerator();
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length)
+                throw new RuntimeException(String.format("option '%s' needs a value", args[i]));
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--functions": generator.setFunctions(value); break;
+                case "--statements": generator.setStatements(value); break;
+                case "--nesting": generator.setNesting(value); break;
+                case "--expression-length": generator.setExpressionLength(value); break;
+                case "--array-size": generator.setArraySize(value); break;
+                case "--seed": generator.setSeed(value); break;
+                default: throw new RuntimeException(String.format("unrecognized option '%s'", args[i]));
+            }
+        }
+        System.out.print(generator.generate());
+    }
+}
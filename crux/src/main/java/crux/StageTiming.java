@@ -0,0 +1,118 @@
+package crux;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one stage of a {@link Driver} run cost: the wall time, the CPU time of the whole process and the bytes allocated
+ * by all threads while it ran. Stages that run on other threads, like lowering and code generation, are therefore fully
+ * counted, but so is anything else the process does at the same time.
+ */
+public final class StageTiming {
+    /** Gets the timing of every stage of a run as soon as the stage is done. */
+    public interface Listener {
+        void stageFinished(StageTiming timing);
+    }
+
+    private static final java.lang.management.OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String stage;
+    private final long wallNanos, cpuNanos, allocatedBytes;
+
+    StageTiming(String stage, long wallNanos, long cpuNanos, long allocatedBytes) {
+        this.stage = stage;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /** The name of the stage, which is the name of its method in the driver, like typeCheck or emitASM. */
+    public String getStage() {
+        return stage;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /** The CPU time of the process, or -1 if the JVM cannot tell. */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /** The bytes allocated by the threads alive at the end of the stage, or -1 if the JVM cannot tell. */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    static long cpuTime() {
+        if (OS instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) OS).getProcessCpuTime();
+        return -1;
+    }
+
+    static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        var threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            if (bytes > 0)
+                total += bytes;
+        return total;
+    }
+
+    /** Collects the timings of a run and prints them as a table or as JSON, for --time-report. */
+    static final class Report implements Listener {
+        private final List<StageTiming> timings = new ArrayList<>();
+
+        @Override
+        public void stageFinished(StageTiming timing) {
+            timings.add(timing);
+        }
+
+        void print(PrintStream out, String file, boolean json) {
+            long wall = 0, cpu = 0, allocated = 0;
+            for (var timing : timings) {
+                wall += timing.wallNanos;
+                cpu += Math.max(timing.cpuNanos, 0);
+                allocated += Math.max(timing.allocatedBytes, 0);
+            }
+            var total = new StageTiming("total", wall, cpu, allocated);
+
+            if (json) {
+                var sb = new StringBuilder("{");
+                if (file != null)
+                    sb.append("\"file\": \"").append(file.replace("\\", "\\\\").replace("\"", "\\\"")).append("\", ");
+                sb.append("\"stages\": [");
+                for (int i = 0; i < timings.size(); i++)
+                    sb.append(i == 0 ? "" : ", ").append(toJson(timings.get(i)));
+                sb.append("], \"total\": ").append(toJson(total)).append("}");
+                out.println(sb);
+                return;
+            }
+
+            out.println(file == null ? "time report:" : String.format("time report for %s:", file));
+            out.printf("  %-10s %10s %10s %12s%n", "stage", "wall ms", "cpu ms", "allocated");
+            for (var timing : timings)
+                printRow(out, timing);
+            printRow(out, total);
+        }
+
+        private static void printRow(PrintStream out, StageTiming timing) {
+            out.printf("  %-10s %10.2f %10s %12s%n", timing.stage, timing.wallNanos / 1e6,
+                    timing.cpuNanos < 0 ? "-" : String.format("%.2f", timing.cpuNanos / 1e6),
+                    timing.allocatedBytes < 0 ? "-" : String.format("%.1f MB", timing.allocatedBytes / 1e6));
+        }
+
+        private static String toJson(StageTiming timing) {
+            return String.format("{\"stage\": \"%s\", \"wallNanos\": %d, \"cpuNanos\": %d, \"allocatedBytes\": %d}",
+                    timing.stage, timing.wallNanos, timing.cpuNanos, timing.allocatedBytes);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package crux;
+
+import java.util.function.Supplier;
+
+/** How a stage of the {@link Driver} ended: the next stage runs only after {@link #Continue}. */
+enum State {
+    Continue,
+    Finished,
+    Error;
+
+    State then(Supplier<State> nextStage) {
+        if (this == Continue)
+            return nextStage.get();
+        return this;
+    }
+
+    State complete() {
+        return this == Finished ? Finished : Error;
+    }
+}
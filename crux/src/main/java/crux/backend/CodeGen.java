@@ -9,26 +9,86 @@ import crux.midend.ir.core.*;
 import crux.midend.ir.core.insts.*;
 import crux.printing.IRValueFormatter;
 
+import java.io.PrintStream;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static java.lang.Integer.max;
 
 public final class CodeGen extends InstVisitor {
+    /** Functions with more instructions than this are not generated in parallel, but straight into the file. */
+    private static final int PARALLEL_INSTRUCTIONS = 2000;
+
     private final IRValueFormatter irFormat = new IRValueFormatter();
 
     private final Program p;
     private final CodePrinter out;
 
-    private Map<Instruction, String> mCurrentLabels = null;
-    private Map<Variable, Integer> mStackMap = null, prevStackMap = null;
+    private String[] mCurrentLabels = null;
+    private BasicBlock mCurrentBlock = null;
+    /** The stack slot of each variable by {@link Variable#getSlot}, 0 for none yet. */
+    private int[] mStackSlots = null, prevStackSlots = null;
+    /** The words taken by the variables in mStackSlots. */
+    private int mStackWords = 0, prevStackWords = 0;
+    /** The words saved by sharing stack slots, over giving each variable its own. */
+    private int mSharedWords = 0;
+    private LinearScan mAllocation = null;
+    private Map<String, Integer> mSavedRegisters = null;
     private ArrayList<String> argRegs = new ArrayList<>(List.of("%rdi", "%rsi", "%rdx", "%rcx", "%r8", "%r9"));
-    private String reg1 = "%r10", reg2 = "%r11", returnReg = "%rax", backupReg = "%r12";
+    private String reg1 = "%r10", reg2 = "%r11", returnReg = "%rax";
+    private boolean regAlloc = false;
+    /** Prefix of the labels of the function being generated, so that functions can be generated independently. */
+    private String labelPrefix = "L";
+    private Map<String, String> precompiled = Map.of();
+    private boolean keepFunctionCode = false;
+    /** The frame size of the last function generated, in words, and what it would be without sharing slots. */
+    private int mFrameAfter = 0, mFrameBefore = 0;
+    private final Map<String, String> functionCode = new LinkedHashMap<>();
+    private PrintStream frameReport = null;
 
     public CodeGen(Program p) {
-        this.p = p;
         // Do not change the file name that is outputted or it will
         // break the grader!
-        out = new CodePrinter("a.s");
+        this(p, "a.s");
+    }
+
+    public CodeGen(Program p, String outputFile) {
+        this.p = p;
+        out = new CodePrinter(outputFile);
+    }
+
+    /** Generates a single function of the same program into the given printer. */
+    private CodeGen(CodeGen parent, Function f, CodePrinter out) {
+        p = parent.p;
+        regAlloc = parent.regAlloc;
+        this.out = out;
+        labelPrefix = f.getName() + ".L";
+    }
+
+    /** Keep variables in registers assigned by {@link LinearScan} instead of giving each its own stack slot. */
+    public void enableRegAlloc() {
+        regAlloc = true;
+    }
+
+    /** Prints the given code, by function name, instead of generating those functions, whose bodies may be empty. */
+    public void usePrecompiled(Map<String, String> code) {
+        precompiled = code;
+    }
+
+    /** Prints for every generated function its frame size in words with one stack slot per variable, and with the
+     * slots shared as generated. */
+    public void enableFrameReport(PrintStream report) {
+        frameReport = report;
+    }
+
+    /** Keeps the code of every function for {@link #getFunctionCode}, which otherwise is not held in memory. */
+    public void keepFunctionCode() {
+        keepFunctionCode = true;
+    }
+
+    /** Returns the code of every function of the last {@link #genCode}, by name, in source order. */
+    public Map<String, String> getFunctionCode() {
+        return functionCode;
     }
 
     /* +=========================================================================================+
@@ -38,95 +98,168 @@ public final class CodeGen extends InstVisitor {
     public void genCode() {
         //This function should generate code for the entire program.
         for (Iterator<GlobalDecl> it = p.getGlobals(); it.hasNext();) genGlobl(it.next());
-        for (Iterator<Function> it = p.getFunctions(); it.hasNext();) genCode(it.next());
+        List<Function> functions = new ArrayList<>();
+        p.getFunctions().forEachRemaining(functions::add);
+        functionCode.clear();
+        // Functions share nothing but the program, so with several processors a window of small functions is
+        // generated in parallel into memory and printed in source order. Large functions, and all of them on a single
+        // processor, go straight to the file, so that memory does not grow with the size of a function.
+        int window = Runtime.getRuntime().availableProcessors();
+        List<Function> batch = new ArrayList<>();
+        for (Function f : functions) {
+            boolean direct = !keepFunctionCode && !precompiled.containsKey(f.getName())
+                    && (window == 1 || f.getCFG().getNumInstructions() > PARALLEL_INSTRUCTIONS);
+            if (!direct) {
+                batch.add(f);
+                if (batch.size() == window) printBatch(batch);
+                continue;
+            }
+            printBatch(batch);
+            reportFrame(f, new CodeGen(this, f, out).genCode(f));
+        }
+        printBatch(batch);
         out.close();
     }
 
-    private void genCode(Function f) {
-        updateStack();
+    /** Generates a window of functions in parallel, prints them in order and empties the window. */
+    private void printBatch(List<Function> batch) {
+        List<CodeGen> gens = batch.parallelStream().map(this::genFunction).collect(Collectors.toList());
+        for (int ndx = 0; ndx < batch.size(); ndx++) {
+            Function f = batch.get(ndx);
+            String code = gens.get(ndx) == null ? precompiled.get(f.getName()) : gens.get(ndx).out.toString();
+            if (keepFunctionCode) functionCode.put(f.getName(), code);
+            out.print(code);
+            if (gens.get(ndx) != null) reportFrame(f, gens.get(ndx));
+        }
+        batch.clear();
+    }
+
+    /** Generates a function into memory, or returns null for a precompiled one. */
+    private CodeGen genFunction(Function f) {
+        if (precompiled.containsKey(f.getName())) return null;
+        return new CodeGen(this, f, new CodePrinter()).genCode(f);
+    }
+
+    private void reportFrame(Function f, CodeGen gen) {
+        if (frameReport == null) return;
+        frameReport.printf("%s: frame %d -> %d words%n", f.getName(), gen.mFrameBefore, gen.mFrameAfter);
+    }
+
+    /** Prints the code of a function as it is generated. The frame size is only known at the end, so the prologue
+     * refers to a symbol that is set after the function. */
+
+    private CodeGen genCode(Function f) {
+        updateStack(f);
         out.printCode(".globl " + f.getName());
+        out.printLabel(makeLabel(f.getName()));
+        genEnter(f);
 
-        mCurrentLabels = assignLabels(f);
+        List<BasicBlock> layout = layoutBlocks(f.getCFG());
+        mCurrentLabels = assignLabels(layout);
         List<LocalVar> args = f.getArguments();
 
-        for (int ndx = 0; ndx < args.size(); ndx++) addVarToStack(args.get(ndx), ndx);
-        out.printLabel(makeLabel(mCurrentLabels.get(f.getStart())));
+        LiveIntervals liveIntervals = new LiveIntervals(f, layout);
+        if (regAlloc) {
+            mAllocation = new LinearScan(liveIntervals);
+            for (String reg : mAllocation.getUsedCalleeSaved()) {
+                int stackNdx = getNewStack(1);
+                mSavedRegisters.put(reg, stackNdx);
+                out.printCode(makeBinCmd("movq", reg, getOffset(stackNdx)));
+            }
+        }
+        assignStackSlots(f, liveIntervals);
 
-        genCodeDFS(f.getStart());
-        genEnter();
-        out.outputBuffer();
+        List<String> argSrcs = new ArrayList<>(), argDsts = new ArrayList<>();
+        for (int ndx = 0; ndx < args.size() && ndx < 6; ndx++) {
+            argSrcs.add(argRegs.get(ndx));
+            argDsts.add(getLocation(args.get(ndx)));
+        }
+        genParallelMove(argSrcs, argDsts);
+        for (int ndx = 6; ndx < args.size(); ndx++) addVarToStack(args.get(ndx), ndx);
+
+        if (layout.isEmpty()) genLeave();
+        else genBlocks(layout);
+        mFrameAfter = getSize();
+        mFrameBefore = roundFrame(mSavedRegisters.size() + mStackWords + mSharedWords);
+        out.printCode(".set " + frameSymbol(f) + ", " + mFrameAfter);
 
         mCurrentLabels = null;
+        mAllocation = null;
         resetStack();
+        return this;
     }
 
-    /** Assigns Labels to any Instruction that might be the target of a
-     * conditional or unconditional jump. */
-
-    private HashMap<Instruction, String> assignLabels(Function f) {
-        HashMap<Instruction, String> labelMap = new HashMap<>();
-        Stack<Instruction> tovisit = new Stack<>();
-        HashSet<Instruction> discovered = new HashSet<>();
-        tovisit.push(f.getStart());
-        while (!tovisit.isEmpty()) {
-            Instruction inst = tovisit.pop();
-
-            for (int childIdx = 0; childIdx < inst.numNext(); childIdx++) {
-                Instruction child = inst.getNext(childIdx);
-                if (discovered.contains(child)) {
-                    //Found the node for a second time...need a label for merge points
-                    if (!labelMap.containsKey(child)) {
-                        labelMap.put(child, getNewLabel());
-                    }
-                } else {
-                    discovered.add(child);
-                    tovisit.push(child);
-                    //Need a label for jump targets also
-                    if (childIdx == 1 && !labelMap.containsKey(child)) {
-                        labelMap.put(child, getNewLabel());
-                    }
-                }
+    /** Lays the blocks out depth first, placing the false (or only) successor of a block right after it whenever
+     * that one has not been placed yet, so that most edges become fall-throughs. */
+
+    private List<BasicBlock> layoutBlocks(ControlFlowGraph cfg) {
+        List<BasicBlock> layout = new ArrayList<>();
+        boolean[] placed = new boolean[cfg.getBlocks().size()];
+        Stack<BasicBlock> frontier = new Stack<>();
+        if (cfg.getEntry() != null) frontier.push(cfg.getEntry());
+        while (!frontier.isEmpty()) {
+            BasicBlock block = frontier.pop();
+            if (placed[block.getIndex()]) continue;
+            placed[block.getIndex()] = true;
+            layout.add(block);
+            for (int succIdx = block.numSuccessors() - 1; succIdx >= 0; succIdx--) {
+                BasicBlock succ = block.getSuccessor(succIdx);
+                if (succ != null && !placed[succ.getIndex()]) frontier.push(succ);
             }
         }
-        if (!labelMap.containsKey(f.getStart())) labelMap.put(f.getStart(), f.getName());
-        return labelMap;
+        return layout;
     }
 
-    private void genCodeDFS(Instruction inst) {
-        boolean firstRun = true;
-        Stack<Instruction> frontier = new Stack<>();
-        HashSet<Instruction> discovered = new HashSet<>();
-        frontier.push(inst);
-        while (!frontier.isEmpty()) {
-            Instruction curInst = frontier.pop();
-            if (!firstRun && mCurrentLabels.containsKey(curInst)) out.bufferLabel(makeLabel(mCurrentLabels.get(curInst)));
-            curInst.accept(this);
-
-            Instruction first = curInst.getNext(0), second = curInst.getNext(1);
-            if (second != null && !discovered.contains(second)) {
-                frontier.push(second);
-                discovered.add(second);
+    /** Assigns Labels to any block that is the target of a conditional
+     * or unconditional jump, indexed by block. */
+
+    private String[] assignLabels(List<BasicBlock> layout) {
+        String[] labels = new String[layout.size()];
+        for (int pos = 0; pos < layout.size(); pos++) {
+            BasicBlock block = layout.get(pos);
+            BasicBlock fallThrough = pos + 1 < layout.size() ? layout.get(pos + 1) : null;
+            for (int succIdx = 0; succIdx < block.numSuccessors(); succIdx++) {
+                BasicBlock succ = block.getSuccessor(succIdx);
+                if (succ == null || (succIdx == 0 && succ == fallThrough)) continue;
+                if (labels[succ.getIndex()] == null) labels[succ.getIndex()] = getNewLabel();
             }
-            if (first != null && !discovered.contains(first)) {
-                frontier.push(first);
-                discovered.add(first);
-            } else if (curInst.getNext(0) != null && (frontier.isEmpty() || curInst.getNext(0) != frontier.peek())) out.bufferCode(makeUnCmd("jmp", mCurrentLabels.get(curInst.getNext(0))));
-            else genLeave();
-            firstRun = false;
         }
+        return labels;
+    }
+
+    private void genBlocks(List<BasicBlock> layout) {
+        for (int pos = 0; pos < layout.size(); pos++) {
+            mCurrentBlock = layout.get(pos);
+            String label = mCurrentLabels[mCurrentBlock.getIndex()];
+            if (label != null) out.printLabel(makeLabel(label));
+            for (Instruction inst : mCurrentBlock.getInstructions()) inst.accept(this);
+
+            BasicBlock next = mCurrentBlock.getSuccessor(0);
+            if (mCurrentBlock.getLast() instanceof ReturnInst) continue;
+            if (next == null) genLeave();
+            else if (pos + 1 == layout.size() || layout.get(pos + 1) != next) out.printCode(makeUnCmd("jmp", mCurrentLabels[next.getIndex()]));
+        }
+        mCurrentBlock = null;
     }
 
     private void genGlobl(GlobalDecl decl) {
         out.printCode(".comm " + decl.getAllocatedAddress().getName().substring(1) + ", " + (((IntegerConstant) decl.getNumElement()).getValue() * 8) + ", 8");
     }
 
-    private void genEnter() {
-        out.printCode("enter $(8 * " + getSize()  + "), $0");
+    private void genEnter(Function f) {
+        out.printCode("enter $(8 * " + frameSymbol(f) + "), $0");
+    }
+
+    /** The number of stack slots of a function, which the assembler fills in; like labels it cannot clash with names. */
+    private static String frameSymbol(Function f) {
+        return f.getName() + ".frame";
     }
 
     private void genLeave() {
-        out.bufferCode("leave");
-        out.bufferCode("ret");
+        for (Map.Entry<String, Integer> saved : mSavedRegisters.entrySet())
+            out.printCode(makeBinCmd("movq", getOffset(saved.getValue()), saved.getKey()));
+        out.printCode("leave");
+        out.printCode("ret");
     }
 
     /* +=========================================================================================+
@@ -135,7 +268,7 @@ public final class CodeGen extends InstVisitor {
 
     private int labelcount = 1;
     private String getNewLabel() {
-        return "L" + (labelcount++);
+        return labelPrefix + (labelcount++);
     }
 
     private int stackcount = 1, prevcount = 1;
@@ -143,15 +276,20 @@ public final class CodeGen extends InstVisitor {
 
     private void resetStack() {
         stackcount = prevcount;
-        mStackMap = prevStackMap;
+        mStackSlots = prevStackSlots;
+        mStackWords = prevStackWords;
+        mSavedRegisters = null;
         numFree = prevFree;
     }
 
-    private void updateStack() {
+    private void updateStack(Function f) {
         prevcount = stackcount;
         stackcount = 1;
-        prevStackMap = mStackMap;
-        mStackMap = new HashMap<>();
+        prevStackSlots = mStackSlots;
+        mStackSlots = new int[f.getNumSlots()];
+        prevStackWords = mStackWords;
+        mStackWords = 0;
+        mSavedRegisters = new LinkedHashMap<>();
         prevFree = numFree;
         numFree = 0;
     }
@@ -169,22 +307,83 @@ public final class CodeGen extends InstVisitor {
         return result;
     }
 
+    /** Gives every variable without a register a stack slot, one slot per color of the {@link StackSlotColoring}, so
+     * that variables that are never live at the same time share a slot. */
+
+    private void assignStackSlots(Function f, LiveIntervals liveIntervals) {
+        StackSlotColoring coloring = new StackSlotColoring(f, liveIntervals);
+        int[] colorSlots = new int[coloring.getNumColors()];
+        for (int color = 0; color < colorSlots.length; color++) colorSlots[color] = getNewStack(1);
+        mStackWords += colorSlots.length;
+        mSharedWords = coloring.getNumVariables() - coloring.getNumColors();
+        for (LiveIntervals.Interval interval : liveIntervals.getIntervals()) {
+            if (interval.register == null) mStackSlots[interval.var.getSlot()] = colorSlots[coloring.getColor(interval.var)];
+        }
+    }
+
     private void addVarToStack(Variable var, int ndx) {
-        int stackNdx;
-        stackNdx = getNewStack(1);
-        mStackMap.put(var, stackNdx);
-        if (ndx < 6) out.bufferCode(makeBinCmd("movq", argRegs.get(ndx), getOffset(mStackMap.get(var))));
+        if (isRegister(getLocation(var))) addVarToStack(var, getAddress("%rbp", ((ndx - 4) * 8)));
         else {
-            out.bufferCode(makeBinCmd("movq", getAddress("%rbp", ((ndx - 4) * 8)), backupReg));
-            out.bufferCode(makeBinCmd("movq", backupReg, getOffset(mStackMap.get(var))));
+            out.printCode(makeBinCmd("movq", getAddress("%rbp", ((ndx - 4) * 8)), reg1));
+            addVarToStack(var, reg1);
         }
     }
 
+    /** Stores src into the home location of var: the register assigned to it, or otherwise its stack slot. */
     private void addVarToStack(Variable var, String src) {
-        int stackNdx;
-        stackNdx = getNewStack(1);
-        mStackMap.put(var, stackNdx);
-        out.bufferCode(makeBinCmd("movq", src, getOffset(mStackMap.get(var))));
+        String dst = getLocation(var);
+        if (!dst.equals(src)) out.printCode(makeBinCmd("movq", src, dst));
+    }
+
+    /** Moves all srcs into their dsts as if at once, breaking cycles among the registers through reg1. Registers
+     * are the only locations that can be both a source and a destination. */
+
+    private void genParallelMove(List<String> srcs, List<String> dsts) {
+        List<String> pendingSrcs = new ArrayList<>(), pendingDsts = new ArrayList<>();
+        for (int ndx = 0; ndx < srcs.size(); ndx++) {
+            if (srcs.get(ndx).equals(dsts.get(ndx))) continue;
+            pendingSrcs.add(srcs.get(ndx));
+            pendingDsts.add(dsts.get(ndx));
+        }
+        while (!pendingSrcs.isEmpty()) {
+            int ready = -1;
+            for (int ndx = 0; ndx < pendingDsts.size() && ready < 0; ndx++)
+                if (!pendingSrcs.contains(pendingDsts.get(ndx))) ready = ndx;
+            if (ready < 0) {
+                String blocked = pendingSrcs.get(0);
+                out.printCode(makeBinCmd("movq", blocked, reg1));
+                pendingSrcs.replaceAll(src -> src.equals(blocked) ? reg1 : src);
+                continue;
+            }
+            String src = pendingSrcs.remove(ready), dst = pendingDsts.remove(ready);
+            if (isRegister(src) || isRegister(dst)) out.printCode(makeBinCmd("movq", src, dst));
+            else {
+                out.printCode(makeBinCmd("movq", src, reg2));
+                out.printCode(makeBinCmd("movq", reg2, dst));
+            }
+        }
+    }
+
+    /** Returns the register holding var, or its stack slot, allocating the slot on first use. */
+    private String getLocation(Variable var) {
+        if (mAllocation != null) {
+            String reg = mAllocation.getRegister(var);
+            if (reg != null) return reg;
+        }
+        if (mStackSlots[var.getSlot()] == 0) {
+            mStackSlots[var.getSlot()] = getNewStack(1);
+            if (var.getType().getClass() == ArrayType.class) mStackWords += ((ArrayType) var.getType()).getExtent();
+            else mStackWords++;
+        }
+        return getOffset(mStackSlots[var.getSlot()]);
+    }
+
+    /** Returns a register holding the value of var, loading it into scratch if it lives on the stack. */
+    private String getInRegister(Variable var, String scratch) {
+        String loc = getLocation(var);
+        if (isRegister(loc)) return loc;
+        out.printCode(makeBinCmd("movq", loc, scratch));
+        return scratch;
     }
 
     /* +=========================================================================================+
@@ -219,14 +418,27 @@ public final class CodeGen extends InstVisitor {
         return "0(" + addrBase + ")";
     }
 
+    private boolean isRegister(String loc) {
+        return loc.startsWith("%");
+    }
+
+    /** Picks the register an instruction computes its result in: the destination itself when it is a register
+     * that none of the remaining operands occupy, otherwise scratch. */
+
+    private String getTarget(Variable dst, String scratch, String... operands) {
+        String loc = getLocation(dst);
+        if (!isRegister(loc) || Arrays.asList(operands).contains(loc)) return scratch;
+        return loc;
+    }
+
     private int getSize() {
-        int size = 0;
-        for (Variable curVar : mStackMap.keySet()) {
-            if (curVar.getType().getClass() == ArrayType.class) size += ((ArrayType) curVar.getType()).getExtent();
-            else size++;
-        }
-        if (size % 2 == 0) return size;
-        return size + 1;
+        return roundFrame(mSavedRegisters.size() + mStackWords);
+    }
+
+    /** Keeps %rsp 16-byte aligned at calls. */
+    private int roundFrame(int words) {
+        if (words % 2 == 0) return words;
+        return words + 1;
     }
 
     /* +=========================================================================================+
@@ -234,50 +446,59 @@ public final class CodeGen extends InstVisitor {
        +=========================================================================================+ */
 
     public void visit(AddressAt i) {
-        out.bufferCode("/* AddressAt */");
+        out.printCode("/* AddressAt */");
         String name = i.getBase().getName().substring(1);
+        String target = getTarget(i.getDst(), reg2);
         if (i.getOffset() != null) {
-            out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getOffset())), reg2));
-            out.bufferCode(makeBinCmd("movq", "$8", reg1));
-            out.bufferCode(makeBinCmd("imul", reg1, reg2));
-            out.bufferCode(makeBinCmd("movq", name + "@GOTPCREL(%rip)", reg1));
-            out.bufferCode(makeBinCmd("addq", reg1, reg2));
-        } else out.bufferCode(makeBinCmd("movq", name + "@GOTPCREL(%rip)", reg2));
+            String offset = getInRegister(i.getOffset(), reg1);
+            out.printCode(makeBinCmd("movq", name + "@GOTPCREL(%rip)", target));
+            out.printCode(makeBinCmd("leaq", "(" + target + ", " + offset + ", 8)", target));
+        } else out.printCode(makeBinCmd("movq", name + "@GOTPCREL(%rip)", target));
 
-        addVarToStack(i.getDst(), reg2);
+        addVarToStack(i.getDst(), target);
     }
 
     public void visit(BinaryOperator i) {
-        out.bufferCode("/* BinaryOperator */");
-        out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getLeftOperand())), reg1));
+        out.printCode("/* BinaryOperator */");
+        String left = getLocation(i.getLeftOperand()), right = getLocation(i.getRightOperand());
+
+        if (i.getOperator().equals(BinaryOperator.Op.Div)) {
+            out.printCode(makeBinCmd("movq", left, returnReg));
+            out.printCode("cqto");
+            out.printCode(makeUnCmd("idivq", right));
+            addVarToStack(i.getDst(), returnReg);
+            return;
+        }
+
+        String target = getTarget(i.getDst(), reg1, right);
+        if (!target.equals(left)) out.printCode(makeBinCmd("movq", left, target));
 
-        if (i.getOperator().equals(BinaryOperator.Op.Add)) out.bufferCode(makeBinCmd("addq", getOffset(mStackMap.get(i.getRightOperand())), reg1));
-        else if (i.getOperator().equals(BinaryOperator.Op.Div)) out.bufferCode(makeBinCmd("idiv", getOffset(mStackMap.get(i.getRightOperand())), reg1));
-        else if (i.getOperator().equals(BinaryOperator.Op.Mul)) out.bufferCode(makeBinCmd("imul", getOffset(mStackMap.get(i.getRightOperand())), reg1));
-        else if (i.getOperator().equals(BinaryOperator.Op.Sub)) out.bufferCode(makeBinCmd("subq", getOffset(mStackMap.get(i.getRightOperand())), reg1));
+        if (i.getOperator().equals(BinaryOperator.Op.Add)) out.printCode(makeBinCmd("addq", right, target));
+        else if (i.getOperator().equals(BinaryOperator.Op.Mul)) out.printCode(makeBinCmd("imul", right, target));
+        else if (i.getOperator().equals(BinaryOperator.Op.Sub)) out.printCode(makeBinCmd("subq", right, target));
 
-        addVarToStack(i.getDst(), reg1);
+        addVarToStack(i.getDst(), target);
     }
 
     public void visit(CompareInst i) {
-        out.bufferCode("/* CompareInst */");
-        out.bufferCode(makeBinCmd("movq", "$0", reg1));
-        out.bufferCode(makeBinCmd("movq", "$1", returnReg));
-        out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getLeftOperand())), reg2));
-        out.bufferCode(makeBinCmd("cmp", getOffset(mStackMap.get(i.getRightOperand())), reg2));
+        out.printCode("/* CompareInst */");
+        String left = getInRegister(i.getLeftOperand(), reg2);
+        out.printCode(makeBinCmd("cmp", getLocation(i.getRightOperand()), left));
 
-        if (i.getPredicate().equals(CompareInst.Predicate.NE)) out.bufferCode(makeBinCmd("cmovne", returnReg, reg1));
-        else if (i.getPredicate().equals(CompareInst.Predicate.LT)) out.bufferCode(makeBinCmd("cmovl", returnReg, reg1));
-        else if (i.getPredicate().equals(CompareInst.Predicate.LE)) out.bufferCode(makeBinCmd("cmovle", returnReg, reg1));
-        else if (i.getPredicate().equals(CompareInst.Predicate.GT)) out.bufferCode(makeBinCmd("cmovg", returnReg, reg1));
-        else if (i.getPredicate().equals(CompareInst.Predicate.GE)) out.bufferCode(makeBinCmd("cmovge", returnReg, reg1));
-        else out.bufferCode(makeBinCmd("cmove", returnReg, reg1));
+        if (i.getPredicate().equals(CompareInst.Predicate.NE)) out.printCode(makeUnCmd("setne", "%r10b"));
+        else if (i.getPredicate().equals(CompareInst.Predicate.LT)) out.printCode(makeUnCmd("setl", "%r10b"));
+        else if (i.getPredicate().equals(CompareInst.Predicate.LE)) out.printCode(makeUnCmd("setle", "%r10b"));
+        else if (i.getPredicate().equals(CompareInst.Predicate.GT)) out.printCode(makeUnCmd("setg", "%r10b"));
+        else if (i.getPredicate().equals(CompareInst.Predicate.GE)) out.printCode(makeUnCmd("setge", "%r10b"));
+        else out.printCode(makeUnCmd("sete", "%r10b"));
 
-        addVarToStack(i.getDst(), reg1);
+        String target = getTarget(i.getDst(), reg1);
+        out.printCode(makeBinCmd("movzbq", "%r10b", target));
+        addVarToStack(i.getDst(), target);
     }
 
     public void visit(CopyInst i) {
-        out.bufferCode("/* CopyInst */");
+        out.printCode("/* CopyInst */");
         Value srcVal = i.getSrcValue();
         Variable destVar = i.getDstVar();
         String src;
@@ -285,67 +506,64 @@ public final class CodeGen extends InstVisitor {
             if (((BooleanConstant) srcVal).getValue()) src = "$1";
             else src = "$0";
         } else if (srcVal.getClass() == IntegerConstant.class) src = "$" + ((IntegerConstant) srcVal).getValue();
-        else {
-            out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(srcVal)), reg1));
-            src = reg1;
-        }
-        if (!mStackMap.containsKey(destVar)) addVarToStack(destVar, src);
-        else out.bufferCode(makeBinCmd("movq", src, getOffset(mStackMap.get(destVar))));
+        else if (isRegister(getLocation(destVar))) src = getLocation((Variable) srcVal);
+        else src = getInRegister((Variable) srcVal, reg1);
+        addVarToStack(destVar, src);
     }
 
     public void visit(JumpInst i) {
-        out.bufferCode("/* JumpInst */");
-        out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getPredicate())), reg1));
-        out.bufferCode(makeBinCmd("cmp", "$1", reg1));
-        out.bufferCode(makeUnCmd("je", mCurrentLabels.get(i.getNext(1))));
+        out.printCode("/* JumpInst */");
+        out.printCode(makeBinCmd("cmpq", "$1", getLocation(i.getPredicate())));
+        out.printCode(makeUnCmd("je", mCurrentLabels[mCurrentBlock.getSuccessor(1).getIndex()]));
     }
 
     public void visit(LoadInst i) {
-        out.bufferCode("/* LoadInst */");
-        out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getSrcAddress())), reg1));
-        out.bufferCode(makeBinCmd("movq", getAddress(reg1), reg1));
-        addVarToStack(i.getDst(), reg1);
+        out.printCode("/* LoadInst */");
+        String address = getInRegister(i.getSrcAddress(), reg1);
+        String target = getTarget(i.getDst(), reg1);
+        out.printCode(makeBinCmd("movq", getAddress(address), target));
+        addVarToStack(i.getDst(), target);
     }
 
     public void visit(NopInst i) {
-        out.bufferCode("/* NopInst */");
+        out.printCode("/* NopInst */");
     }
 
     public void visit(StoreInst i) {
-        out.bufferCode("/* StoreInst */");
-        out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getSrcValue())), reg1));
-
-        if (mStackMap.containsKey(i.getDestAddress())) out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getDestAddress())), reg2));
-        //else if (varInStack(i.getDestAddress().getName().substring(1))) out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(getVarWithName(i.getDestAddress().getName().substring(1)))), reg2));
-
-        out.bufferCode(makeBinCmd("movq", reg1, getAddress(reg2)));
+        out.printCode("/* StoreInst */");
+        String src = getInRegister(i.getSrcValue(), reg1);
+        String address = getInRegister(i.getDestAddress(), reg2);
+        out.printCode(makeBinCmd("movq", src, getAddress(address)));
     }
 
     public void visit(ReturnInst i) {
-        out.bufferCode("/* ReturnInst */");
-        out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getReturnValue())), returnReg));
+        out.printCode("/* ReturnInst */");
+        if (i.getReturnValue() != null) out.printCode(makeBinCmd("movq", getLocation(i.getReturnValue()), returnReg));
         genLeave();
     }
 
     public void visit(CallInst i) {
-        out.bufferCode("/* CallInst */");
+        out.printCode("/* CallInst */");
         List<Value> params = i.getParams();
-        int argNdx = 2;
-        for (int ndx = params.size() - 1; ndx >= 0; ndx--) {
-            if (ndx < 6) out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(params.get(ndx))), argRegs.get(ndx)));
-            else {
-                out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(params.get(ndx))), reg1));
-                addVarToStack(new LocalVar(params.get(ndx).getType()), reg1);
-            }
-        }
-        out.bufferCode(makeUnCmd("call", i.getCallee().getName().substring(1)));
+        // Arguments past the sixth are pushed right to left; keep %rsp 16-byte aligned at the call.
+        int numPushed = max(params.size() - 6, 0), padding = numPushed % 2 * 8;
+        if (padding != 0) out.printCode(makeBinCmd("subq", "$" + padding, "%rsp"));
+        for (int ndx = params.size() - 1; ndx >= 6; ndx--)
+            out.printCode(makeUnCmd("pushq", getLocation((Variable) params.get(ndx))));
+        List<String> paramSrcs = new ArrayList<>();
+        for (int ndx = 0; ndx < params.size() && ndx < 6; ndx++) paramSrcs.add(getLocation((Variable) params.get(ndx)));
+        genParallelMove(paramSrcs, argRegs.subList(0, paramSrcs.size()));
+        out.printCode(makeUnCmd("call", i.getCallee().getName().substring(1)));
+        if (numPushed != 0) out.printCode(makeBinCmd("addq", "$" + (numPushed * 8 + padding), "%rsp"));
         if (((FuncType) i.getCallee().getType()).getRet().getClass() != VoidType.class) addVarToStack(i.getDst(), returnReg);
     }
 
     public void visit(UnaryNotInst i) {
-        out.bufferCode("/* UnaryNotInst */");
-        out.bufferCode(makeBinCmd("movq", getOffset(mStackMap.get(i.getInner())), reg1));
-        out.bufferCode(makeUnCmd("not", reg1));
-        out.bufferCode(makeBinCmd("movq", reg1, getOffset(mStackMap.get(i.getDst()))));
+        out.printCode("/* UnaryNotInst */");
+        String target = getTarget(i.getDst(), reg1);
+        String inner = getLocation(i.getInner());
+        if (!target.equals(inner)) out.printCode(makeBinCmd("movq", inner, target));
+        out.printCode(makeBinCmd("xorq", "$1", target));
+        addVarToStack(i.getDst(), target);
     }
 }
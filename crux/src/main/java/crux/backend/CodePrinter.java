@@ -1,42 +1,74 @@
 package crux.backend;
-import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Writes assembly code as it is generated, through a small buffer, so that the memory needed does not grow with the
+ * size of a function. Code that depends on the whole function, like the frame size, refers to a symbol that is only
+ * set after the function (see {@link CodeGen}), so nothing has to be held back.
+ */
 public class CodePrinter {
-    PrintStream out;
-    StringBuffer sb = new StringBuffer();
+    private static final int BUFFER_SIZE = 8192;
 
+    private final Writer out;
+    private final StringBuilder memory;
+
+    /** Prints into the named file; throws an {@link UncheckedIOException} if the file cannot be written. */
     public CodePrinter(String name) {
         try {
-            out = new PrintStream(name);
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(-1);
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(name), StandardCharsets.UTF_8), BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
         }
+        memory = null;
     }
 
-    public void printLabel(String s) {
-        out.println(s);
+    /** Prints into memory instead of a file; {@link #toString} returns what was printed. */
+    public CodePrinter() {
+        memory = new StringBuilder();
+        out = null;
     }
 
-    public void printCode(String s) {
-        out.println("    "+s);
+    /** Prints code that is already laid out, such as what another printer produced. */
+    public void print(String s) {
+        write(s);
     }
 
-    public void bufferCode(String s) {
-        sb.append("    " + s + "\n");
+    @Override
+    public String toString() {
+        return memory == null ? super.toString() : memory.toString();
     }
 
-    public void bufferLabel(String s) {
-        sb.append(s + "\n");
+    public void printLabel(String s) {
+        write(s);
+        write("\n");
     }
 
-    public void outputBuffer() {
-        out.print(sb);
-        sb = new StringBuffer();
+    public void printCode(String s) {
+        write("    ");
+        write(s);
+        write("\n");
     }
 
     public void close() {
-        out.close();
+        if (memory != null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(String s) {
+        if (memory != null) {
+            memory.append(s);
+            return;
+        }
+        try {
+            out.write(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
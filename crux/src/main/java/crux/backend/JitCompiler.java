@@ -0,0 +1,442 @@
+package crux.backend;
+
+import crux.frontend.types.IntType;
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.*;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Runs a {@link Program} by translating it to JVM bytecode and letting the JVM compile it, instead of interpreting the
+ * IR. Each function becomes a class of its own with one static method. Every argument and variable of a function is a
+ * {@code long} local in the variable's slot (booleans are 0 or 1), calls go through a call site per callee, and the
+ * global memory and built-in functions are reached through a {@link JitRuntime} in a static field.
+ * <p>
+ * Functions are compiled for the tiers of the {@link Emulator} when the emulator asks for them (see
+ * {@link #tierCompiler}). A function also gets an entry method {@code name$enter(long[], int)} that takes the
+ * function's frame and starts at the given block, so that the emulator can move a running loop over to compiled code.
+ * {@link #run} is such an emulator that compiles every function on its first call, so a function the JVM cannot take
+ * is still interpreted.
+ * <p>
+ * Each run loads its classes into a fresh class loader, so runs do not share any state.
+ */
+public final class JitCompiler {
+    private static final String CLASS_NAME = "CruxProgram";
+    private static final String RUNTIME = "crux/backend/JitRuntime";
+    private static final String RUNTIME_DESC = "L" + RUNTIME + ";";
+    private static final long STACK_SIZE = 1L << 30;
+    private static final MethodType ENTER_TYPE = MethodType.methodType(long.class, long[].class, int.class);
+    private static final Handle LINK = new Handle(H_INVOKESTATIC, "crux/backend/JitCompiler", "link",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class)
+                    .toMethodDescriptorString(), false);
+
+    private final Emulator emulator;
+
+    public JitCompiler(Program p, InputStream input, OutputStream output) {
+        emulator = new Emulator(p, input, output);
+        emulator.enableTiering(JitCompiler::tierCompiler);
+        emulator.setTierUpThresholds(1, 1);
+    }
+
+    /** Makes the compiler for one run of an emulator that tiers up; the compiled code shares the emulator's state. */
+    public static Emulator.TierCompiler tierCompiler(Program p, GlobalMemory memory, BufferedReader in, PrintStream out,
+                                                     Emulator.Interpreter interpreter) {
+        return new Tier(p, memory, new JitRuntime(memory, in, out, interpreter));
+    }
+
+    /**
+     * Links a call from compiled code to the call site of the callee, which belongs to the same run as the class of
+     * the caller.
+     */
+    public static CallSite link(MethodHandles.Lookup caller, String name, MethodType type) {
+        return ((Loader) caller.lookupClass().getClassLoader()).callSites.get(name);
+    }
+
+    public void run() {
+        emulator.run();
+    }
+
+    /** Stops the run from another thread (see {@link Emulator#cancel}). */
+    public void cancel() {
+        emulator.cancel();
+    }
+
+    private static String descriptor(int numArgs) {
+        return "(" + "J".repeat(numArgs) + ")J";
+    }
+
+    private static final class Loader extends ClassLoader {
+        /** The call site of every function, which {@link #link} hands to the calls in the classes of this loader. */
+        final Map<String, MutableCallSite> callSites = new HashMap<>();
+
+        Loader() {
+            super(JitCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    /**
+     * The compiled functions of one run of a tiering {@link Emulator}. Every function is compiled into a class of its
+     * own when the emulator asks for it, and calls go through a call site per callee. The call site first calls back
+     * into the emulator, and points at the compiled code once there is some. A function the JVM turns down, such as
+     * one over the 64 KB limit of a method, is not compiled, and compiled code keeps calling the emulator for it.
+     * <p>
+     * Crux recursion in compiled code becomes JVM recursion, so compiled code runs on a thread with a large stack. The
+     * thread starts when compiled code first runs, and the emulator hands over to it whenever it enters compiled code
+     * from elsewhere.
+     */
+    private static final class Tier implements Emulator.TierCompiler {
+        private final Loader mLoader = new Loader();
+        private final GlobalMemory mMemory;
+        private final JitRuntime mRuntime;
+        private ExecutorService mExecutor;
+        private volatile Thread mThread;
+
+        Tier(Program p, GlobalMemory memory, JitRuntime runtime) {
+            mMemory = memory;
+            mRuntime = runtime;
+            MethodHandle interpret;
+            try {
+                interpret = MethodHandles.publicLookup().findVirtual(JitRuntime.class, "call",
+                        MethodType.methodType(long.class, String.class, long[].class));
+            } catch (ReflectiveOperationException e) {
+                throw new Error("cannot find the runtime", e);
+            }
+            for (Iterator<Function> it = p.getFunctions(); it.hasNext(); ) {
+                Function f = it.next();
+                MethodHandle target = MethodHandles.insertArguments(interpret, 0, runtime, f.getName())
+                        .asCollector(long[].class, f.getArguments().size());
+                mLoader.callSites.put(f.getName(), new MutableCallSite(target));
+            }
+        }
+
+        @Override
+        public Emulator.CompiledFunction compile(Function f) {
+            String className = CLASS_NAME + "$" + f.getName();
+            MethodHandle direct, entry;
+            try {
+                // Computing the frames of a huge method takes more memory than we have, so the size check comes
+                // first, on a class without them
+                classFile(className, f, 0);
+                Class<?> function = mLoader.define(className,
+                        classFile(className, f, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS));
+                function.getField("rt").set(null, mRuntime);
+                var lookup = MethodHandles.publicLookup();
+                direct = lookup.findStatic(function, f.getName(), type(f.getArguments().size()));
+                entry = lookup.findStatic(function, f.getName() + "$enter", ENTER_TYPE);
+            } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+                // Typically a MethodTooLargeException; the function stays with the emulator
+                return null;
+            }
+            mLoader.callSites.get(f.getName()).setTarget(direct);
+            return (frame, block) -> enter(entry, frame, block);
+        }
+
+        @Override
+        public void close() {
+            if (mExecutor != null)
+                mExecutor.shutdown();
+        }
+
+        /** Runs compiled code on the thread with the large stack, and rethrows whatever it throws. */
+        private long enter(MethodHandle entry, long[] frame, int block) {
+            if (Thread.currentThread() == mThread)
+                return invoke(entry, frame, block);
+            if (mExecutor == null) {
+                mExecutor = Executors.newSingleThreadExecutor(task -> {
+                    mThread = new Thread(null, task, "crux-jit", STACK_SIZE);
+                    mThread.setDaemon(true);
+                    return mThread;
+                });
+            }
+            Future<Long> result = mExecutor.submit(() -> invoke(entry, frame, block));
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new Error(e.getCause());
+            } catch (InterruptedException e) {
+                throw new Error("interrupted while running the compiled program", e);
+            }
+        }
+
+        private static long invoke(MethodHandle entry, long[] frame, int block) {
+            try {
+                return (long) entry.invokeExact(frame, block);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new Error(e);
+            }
+        }
+
+        private byte[] classFile(String className, Function f, int flags) {
+            var cw = new ClassWriter(flags);
+            cw.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, "java/lang/Object", null);
+            cw.visitField(ACC_PUBLIC | ACC_STATIC, "rt", RUNTIME_DESC, null, null).visitEnd();
+            new FunctionTranslator(cw, className, f, mMemory, false).translate();
+            new FunctionTranslator(cw, className, f, mMemory, true).translate();
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+    }
+
+    private static MethodType type(int numArgs) {
+        return MethodType.fromMethodDescriptorString(descriptor(numArgs), null);
+    }
+
+    private static final class FunctionTranslator extends InstVisitor {
+        private final String mClassName;
+        private final Function mFunction;
+        private final MethodVisitor mv;
+        private final GlobalMemory mMemory;
+        /** Whether this is the entry method, whose first two locals are the frame and the block to start at. */
+        private final boolean mEntry;
+        private Label[] mLabels;
+        private BasicBlock mBlock;
+
+        FunctionTranslator(ClassWriter cw, String className, Function f, GlobalMemory memory, boolean entry) {
+            mClassName = className;
+            mFunction = f;
+            mMemory = memory;
+            mEntry = entry;
+            if (entry)
+                mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, f.getName() + "$enter", "([JI)J", null, null);
+            else
+                mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, f.getName(), descriptor(f.getArguments().size()), null, null);
+        }
+
+        void translate() {
+            mv.visitCode();
+            List<BasicBlock> blocks = mFunction.getCFG().getBlocks();
+            mLabels = new Label[blocks.size()];
+            for (int b = 0; b < blocks.size(); b++)
+                mLabels[b] = new Label();
+
+            if (mEntry) {
+                for (int slot = 0; slot < mFunction.getNumSlots(); slot++) {
+                    mv.visitVarInsn(ALOAD, 0);
+                    mv.visitLdcInsn(slot);
+                    mv.visitInsn(LALOAD);
+                    mv.visitVarInsn(LSTORE, 2 + 2 * slot);
+                }
+                if (!blocks.isEmpty()) {
+                    mv.visitVarInsn(ILOAD, 1);
+                    mv.visitTableSwitchInsn(0, blocks.size() - 1, mLabels[0], mLabels);
+                }
+            } else {
+                poll();
+                // The verifier wants every local written before it is read, whatever path leads there.
+                for (int slot = mFunction.getArguments().size(); slot < mFunction.getNumSlots(); slot++) {
+                    mv.visitInsn(LCONST_0);
+                    mv.visitVarInsn(LSTORE, 2 * slot);
+                }
+            }
+            for (int b = 0; b < blocks.size(); b++) {
+                mBlock = blocks.get(b);
+                mv.visitLabel(mLabels[b]);
+                for (Instruction inst : mBlock.getInstructions())
+                    inst.accept(this);
+                if (mBlock.getLast() instanceof ReturnInst)
+                    continue;
+                BasicBlock next = mBlock.getSuccessor(0);
+                if (next == null) {
+                    mv.visitInsn(LCONST_0);
+                    mv.visitInsn(LRETURN);
+                } else if (next.getIndex() != b + 1) {
+                    if (next.getIndex() <= b)
+                        poll();
+                    mv.visitJumpInsn(GOTO, mLabels[next.getIndex()]);
+                }
+            }
+            if (blocks.isEmpty()) {
+                mv.visitInsn(LCONST_0);
+                mv.visitInsn(LRETURN);
+            }
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        private void load(Value v) {
+            if (v instanceof IntegerConstant)
+                pushLong(((IntegerConstant) v).getValue());
+            else if (v instanceof BooleanConstant)
+                pushLong(((BooleanConstant) v).getValue() ? 1 : 0);
+            else
+                mv.visitVarInsn(LLOAD, slot((Variable) v));
+        }
+
+        private void store(Variable v) {
+            mv.visitVarInsn(LSTORE, slot(v));
+        }
+
+        /** Returns the JVM local of a variable; every slot takes two locals, as longs do. */
+        private int slot(Variable v) {
+            if (v.getSlot() < 0)
+                throw new Error(v + " has no slot in " + mFunction.getName());
+            return (mEntry ? 2 : 0) + 2 * v.getSlot();
+        }
+
+        private void pushLong(long value) {
+            if (value == 0)
+                mv.visitInsn(LCONST_0);
+            else if (value == 1)
+                mv.visitInsn(LCONST_1);
+            else
+                mv.visitLdcInsn(value);
+        }
+
+        private void runtime(String method, String desc) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, RUNTIME, method, desc, false);
+        }
+
+        /** Lets the run be cancelled here (see {@link JitRuntime#poll}). */
+        private void poll() {
+            mv.visitFieldInsn(GETSTATIC, mClassName, "rt", RUNTIME_DESC);
+            runtime("poll", "()V");
+        }
+
+        public void visit(AddressAt i) {
+            pushLong(mMemory.getOffset(i.getBase()));
+            if (i.getOffset() != null) {
+                load(i.getOffset());
+                mv.visitIntInsn(BIPUSH, 3);
+                mv.visitInsn(LSHL);
+                mv.visitInsn(LADD);
+            }
+            store(i.getDst());
+        }
+
+        public void visit(BinaryOperator i) {
+            load(i.getLeftOperand());
+            load(i.getRightOperand());
+            switch (i.getOperator()) {
+                case Add: mv.visitInsn(LADD); break;
+                case Sub: mv.visitInsn(LSUB); break;
+                case Mul: mv.visitInsn(LMUL); break;
+                case Div: mv.visitInsn(LDIV); break;
+            }
+            store(i.getDst());
+        }
+
+        public void visit(CompareInst i) {
+            load(i.getLeftOperand());
+            load(i.getRightOperand());
+            mv.visitInsn(LCMP);
+            int jumpIfFalse = 0;
+            switch (i.getPredicate()) {
+                case GE: jumpIfFalse = IFLT; break;
+                case GT: jumpIfFalse = IFLE; break;
+                case LE: jumpIfFalse = IFGT; break;
+                case LT: jumpIfFalse = IFGE; break;
+                case EQ: jumpIfFalse = IFNE; break;
+                case NE: jumpIfFalse = IFEQ; break;
+            }
+            Label isFalse = new Label(), done = new Label();
+            mv.visitJumpInsn(jumpIfFalse, isFalse);
+            mv.visitInsn(LCONST_1);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(isFalse);
+            mv.visitInsn(LCONST_0);
+            mv.visitLabel(done);
+            store(i.getDst());
+        }
+
+        public void visit(CopyInst i) {
+            load(i.getSrcValue());
+            store(i.getDstVar());
+        }
+
+        public void visit(JumpInst i) {
+            if (mBlock.getSuccessor(1).getIndex() <= mBlock.getIndex())
+                poll();
+            load(i.getPredicate());
+            mv.visitInsn(LCONST_0);
+            mv.visitInsn(LCMP);
+            mv.visitJumpInsn(IFNE, mLabels[mBlock.getSuccessor(1).getIndex()]);
+        }
+
+        public void visit(LoadInst i) {
+            mv.visitFieldInsn(GETSTATIC, mClassName, "rt", RUNTIME_DESC);
+            load(i.getSrcAddress());
+            runtime(i.getSrcAddress().getType() instanceof IntType ? "load" : "loadBool", "(J)J");
+            store(i.getDst());
+        }
+
+        public void visit(StoreInst i) {
+            mv.visitFieldInsn(GETSTATIC, mClassName, "rt", RUNTIME_DESC);
+            load(i.getDestAddress());
+            load(i.getSrcValue());
+            runtime("store", "(JJ)V");
+        }
+
+        public void visit(UnaryNotInst i) {
+            mv.visitInsn(LCONST_1);
+            load(i.getInner());
+            mv.visitInsn(LSUB);
+            store(i.getDst());
+        }
+
+        public void visit(ReturnInst i) {
+            if (i.getReturnValue() == null)
+                mv.visitInsn(LCONST_0);
+            else
+                load(i.getReturnValue());
+            mv.visitInsn(LRETURN);
+        }
+
+        public void visit(CallInst i) {
+            String callee = i.getCallee().getName().substring(1);
+            List<Value> params = i.getParams();
+            switch (callee) {
+                case "readInt":
+                    mv.visitFieldInsn(GETSTATIC, mClassName, "rt", RUNTIME_DESC);
+                    runtime("readInt", "()J");
+                    store(i.getDst());
+                    return;
+                case "printInt":
+                case "printBool":
+                    mv.visitFieldInsn(GETSTATIC, mClassName, "rt", RUNTIME_DESC);
+                    load(params.get(0));
+                    runtime(callee, "(J)V");
+                    return;
+                case "println":
+                    mv.visitFieldInsn(GETSTATIC, mClassName, "rt", RUNTIME_DESC);
+                    runtime("println", "()V");
+                    return;
+            }
+            for (Value param : params)
+                load(param);
+            mv.visitInvokeDynamicInsn(callee, descriptor(params.size()), LINK);
+            if (i.getDst() == null)
+                mv.visitInsn(POP2);
+            else
+                store(i.getDst());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package crux.backend;
+
+import crux.midend.ir.core.Emulator;
+import crux.midend.ir.core.GlobalMemory;
+
+import java.io.*;
+
+/**
+ * What the classes generated by {@link JitCompiler} call into: the global memory of the program and the built-in
+ * functions, with the same behaviour as in the {@link crux.midend.ir.core.Emulator}. Booleans are 0 or 1.
+ */
+public final class JitRuntime {
+    private final GlobalMemory mMemory;
+    private final BufferedReader mIn;
+    private final PrintStream mOut;
+    /** Runs the functions that are not compiled. */
+    private final Emulator.Interpreter mInterpreter;
+
+    JitRuntime(GlobalMemory memory, BufferedReader in, PrintStream out, Emulator.Interpreter interpreter) {
+        mMemory = memory;
+        mIn = in;
+        mOut = out;
+        mInterpreter = interpreter;
+    }
+
+    /** Calls a function that is not compiled. */
+    public long call(String function, long[] args) {
+        return mInterpreter.call(function, args);
+    }
+
+    /** Throws if the run was cancelled; called on entry to every function and before every jump back in a loop. */
+    public void poll() {
+        mInterpreter.checkCancelled();
+    }
+
+    public long load(long address) {
+        return mMemory.load(address);
+    }
+
+    public long loadBool(long address) {
+        return mMemory.load(address) != 0 ? 1 : 0;
+    }
+
+    public void store(long address, long value) {
+        mMemory.store(address, value);
+    }
+
+    public long readInt() {
+        try {
+            mOut.print("int?");
+            return Long.valueOf(mIn.readLine());
+        } catch (IOException e) {
+            throw new Error("Error in inputting Integer.");
+        }
+    }
+
+    public void printInt(long value) {
+        mOut.print(value);
+    }
+
+    public void printBool(long value) {
+        mOut.print(value != 0);
+    }
+
+    public void println() {
+        mOut.println("");
+    }
+}
@@ -0,0 +1,78 @@
+package crux.backend;
+
+import crux.midend.ir.core.Variable;
+
+import java.util.*;
+
+/**
+ * Linear-scan register allocation (Poletto and Sarkar) over the {@link LiveIntervals} of a function. Variables that
+ * are live across a call can only be kept in callee-saved registers, all others may also use the argument registers.
+ * A copy whose source dies at the copy reuses the source's register, and otherwise an interval gets its preferred
+ * register when that one is free. When no suitable register is free, the interval ending last is spilled and its
+ * variable keeps living in the stack frame.
+ */
+final class LinearScan {
+    static final List<String> CALLEE_SAVED = List.of("%rbx", "%r12", "%r13", "%r14", "%r15");
+    static final List<String> CALLER_SAVED = List.of("%rdi", "%rsi", "%rdx", "%rcx", "%r8", "%r9");
+
+    /** The register of each variable by {@link Variable#getSlot}, null if spilled. */
+    private final String[] mRegisters;
+    private final Set<String> mUsedCalleeSaved = new TreeSet<>(Comparator.comparingInt(CALLEE_SAVED::indexOf));
+
+    LinearScan(LiveIntervals liveIntervals) {
+        mRegisters = new String[liveIntervals.getNumSlots()];
+        List<LiveIntervals.Interval> intervals = new ArrayList<>(liveIntervals.getIntervals());
+        intervals.sort(Comparator.comparingInt((LiveIntervals.Interval i) -> i.start).thenComparingInt(i -> i.end));
+
+        Deque<String> freeCaller = new ArrayDeque<>(CALLER_SAVED), freeCallee = new ArrayDeque<>(CALLEE_SAVED);
+        PriorityQueue<LiveIntervals.Interval> active = new PriorityQueue<>(Comparator.comparingInt(i -> i.end));
+
+        for (LiveIntervals.Interval cur : intervals) {
+            while (!active.isEmpty() && active.peek().end < cur.start) {
+                String reg = active.poll().register;
+                (CALLEE_SAVED.contains(reg) ? freeCallee : freeCaller).push(reg);
+            }
+
+            LiveIntervals.Interval source = cur.copyOf;
+            if (source != null && source.register != null && source.end == cur.start && isAllowed(cur, source.register)) {
+                active.remove(source);
+                cur.register = source.register;
+            } else if (cur.preferred != null && isAllowed(cur, cur.preferred) && freeCaller.remove(cur.preferred))
+                cur.register = cur.preferred;
+            else if (!cur.crossesClobber && !freeCaller.isEmpty()) cur.register = freeCaller.pop();
+            else if (!freeCallee.isEmpty()) cur.register = freeCallee.pop();
+            else {
+                LiveIntervals.Interval victim = null;
+                for (LiveIntervals.Interval candidate : active) {
+                    if (!isAllowed(cur, candidate.register)) continue;
+                    if (victim == null || candidate.end > victim.end) victim = candidate;
+                }
+                if (victim == null || victim.end <= cur.end) continue;
+                active.remove(victim);
+                cur.register = victim.register;
+                victim.register = null;
+            }
+            active.add(cur);
+        }
+
+        for (LiveIntervals.Interval interval : intervals) {
+            if (interval.register == null) continue;
+            mRegisters[interval.var.getSlot()] = interval.register;
+            if (CALLEE_SAVED.contains(interval.register)) mUsedCalleeSaved.add(interval.register);
+        }
+    }
+
+    private static boolean isAllowed(LiveIntervals.Interval interval, String reg) {
+        return !interval.crossesClobber || CALLEE_SAVED.contains(reg);
+    }
+
+    /** Returns the register assigned to the variable, or null if it was spilled to the stack. */
+    String getRegister(Variable var) {
+        return mRegisters[var.getSlot()];
+    }
+
+    /** The callee-saved registers the function writes to, which it has to preserve for its caller. */
+    List<String> getUsedCalleeSaved() {
+        return new ArrayList<>(mUsedCalleeSaved);
+    }
+}
@@ -0,0 +1,233 @@
+package crux.backend;
+
+import crux.midend.dataflow.LiveVariables;
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.*;
+
+import java.util.*;
+
+/**
+ * Live intervals of the variables of a {@link Function}, computed over a layout of its basic blocks. Position 0 is
+ * the function entry (where the arguments are defined), the k-th instruction of the laid out blocks sits at position
+ * k + 1. Every interval covers all positions at which its variable is live, so two variables whose intervals do not
+ * overlap can share a location.
+ * <p>
+ * Besides the range, each interval records whether its variable has to survive a call and which register it would
+ * like to get: the incoming register of an argument, the outgoing register of a call parameter, or the register of
+ * the variable it is copied from.
+ */
+final class LiveIntervals {
+    static final class Interval {
+        final Variable var;
+        int start = Integer.MAX_VALUE, end = -1;
+        /** True if the variable is live across a call (or any other instruction clobbering caller-saved registers). */
+        boolean crossesClobber = false;
+        /** The variable this one is copied from at its start, if that variable dies there. */
+        Interval copyOf = null;
+        String preferred = null;
+        String register = null;
+
+        private Interval(Variable var) {
+            this.var = var;
+        }
+    }
+
+    /** The variables by {@link Variable#getSlot}, which is the id the bit sets use; null for slots not used. */
+    private final Variable[] mVars;
+    /** The first and last position of each variable so far, by slot. */
+    private final int[] mStart, mEnd;
+    private final List<Interval> mIntervals = new ArrayList<>();
+    private final LiveVariables mLiveness;
+
+    LiveIntervals(Function f, List<BasicBlock> layout) {
+        int slots = f.getNumSlots();
+        mVars = new Variable[slots];
+        mStart = new int[slots];
+        mEnd = new int[slots];
+        Arrays.fill(mStart, Integer.MAX_VALUE);
+        Arrays.fill(mEnd, -1);
+        boolean[] crossesClobber = new boolean[slots];
+        int[] copyOf = new int[slots];
+        Arrays.fill(copyOf, -1);
+
+        int n = 0;
+        int[] blockStart = new int[f.getCFG().getBlocks().size()];
+        for (BasicBlock block : layout) {
+            blockStart[block.getIndex()] = n;
+            n += block.size();
+        }
+        int[] divides = new int[n + 1];
+        List<Integer> callPositions = new ArrayList<>();
+        List<List<Variable>> callParams = new ArrayList<>();
+        for (LocalVar arg : f.getArguments()) getId(arg);
+
+        // Walk each block backwards from its live-out set. An interval only records its first and last position, so
+        // a variable live through a block only needs extending to the block's first and last instruction.
+        LiveVariables liveness = mLiveness = new LiveVariables(f.getCFG());
+        if (!layout.isEmpty()) liveness.getLiveIn(layout.get(0)).stream().forEach(id -> extend(id, 0));
+        UseDefCollector collector = new UseDefCollector();
+        for (BasicBlock block : layout) {
+            int first = blockStart[block.getIndex()] + 1, last = first + block.size() - 1;
+            BitSet live = (BitSet) liveness.getLiveOut(block).clone();
+            live.stream().forEach(id -> extend(id, last));
+            for (int k = block.size() - 1; k >= 0; k--) {
+                int pos = first + k;
+                collector.reset();
+                block.get(k).accept(collector);
+                int def = collector.def == null ? -1 : getId(collector.def);
+                // Here live holds what is live right after the instruction.
+                if (collector.calls) {
+                    // Only what is still needed after the call has to survive it; parameters are read before.
+                    BitSet survivors = (BitSet) live.clone();
+                    if (def >= 0) survivors.clear(def);
+                    survivors.stream().forEach(id -> crossesClobber[id] = true);
+                    callPositions.add(pos);
+                    callParams.add(List.copyOf(collector.uses));
+                }
+                if (collector.copySrc != null && !live.get(getId(collector.copySrc)))
+                    copyOf[def] = getId(collector.copySrc);
+                if (def >= 0) {
+                    extend(def, pos);
+                    live.clear(def);
+                }
+                for (Variable v : collector.uses) {
+                    extend(getId(v), pos);
+                    live.set(getId(v));
+                }
+                divides[pos] = collector.divides ? 1 : 0;
+            }
+            live.stream().forEach(id -> extend(id, first));
+        }
+
+        Interval[] intervals = new Interval[slots];
+        for (int id = 0; id < slots; id++) {
+            if (mEnd[id] < 0) continue;
+            intervals[id] = new Interval(mVars[id]);
+            intervals[id].start = mStart[id];
+            intervals[id].end = mEnd[id];
+            intervals[id].crossesClobber = crossesClobber[id];
+        }
+
+        List<LocalVar> args = f.getArguments();
+        for (int ndx = 0; ndx < args.size() && ndx < LinearScan.CALLER_SAVED.size(); ndx++) {
+            if (intervals[args.get(ndx).getSlot()] != null)
+                intervals[args.get(ndx).getSlot()].preferred = LinearScan.CALLER_SAVED.get(ndx);
+        }
+        for (int c = 0; c < callPositions.size(); c++) {
+            List<Variable> params = callParams.get(c);
+            for (int ndx = 0; ndx < params.size() && ndx < LinearScan.CALLER_SAVED.size(); ndx++) {
+                Interval param = intervals[params.get(ndx).getSlot()];
+                if (param.preferred == null && param.end == callPositions.get(c)) param.preferred = LinearScan.CALLER_SAVED.get(ndx);
+            }
+        }
+        for (int id = 0; id < slots; id++) {
+            if (copyOf[id] >= 0) intervals[id].copyOf = intervals[copyOf[id]];
+        }
+
+        // A division clobbers %rdx while it executes, so nothing living there may span it.
+        for (int pos = 1; pos < divides.length; pos++) divides[pos] += divides[pos - 1];
+        for (Interval interval : intervals) {
+            if (interval == null) continue;
+            int before = interval.start == 0 ? 0 : divides[interval.start - 1];
+            if (divides[interval.end] - before > 0) interval.crossesClobber = true;
+            mIntervals.add(interval);
+        }
+    }
+
+    private void extend(int id, int pos) {
+        mStart[id] = Math.min(mStart[id], pos);
+        mEnd[id] = Math.max(mEnd[id], pos);
+    }
+
+    private int getId(Variable v) {
+        mVars[v.getSlot()] = v;
+        return v.getSlot();
+    }
+
+    int getNumSlots() {
+        return mVars.length;
+    }
+
+    List<Interval> getIntervals() {
+        return mIntervals;
+    }
+
+    /** The liveness the intervals were built from, which is exact at every instruction. */
+    LiveVariables getLiveness() {
+        return mLiveness;
+    }
+
+    /** Collects the variables read and written by a single instruction. Global symbols (the base of an
+     * {@link AddressAt} and the callee of a {@link CallInst}) are not variables that live in a frame. */
+
+    private static final class UseDefCollector extends InstVisitor {
+        final List<Variable> uses = new ArrayList<>();
+        Variable def, copySrc;
+        boolean calls, divides;
+
+        void reset() {
+            uses.clear();
+            def = null;
+            copySrc = null;
+            calls = false;
+            divides = false;
+        }
+
+        private void use(Value v) {
+            if (v instanceof Variable) uses.add((Variable) v);
+        }
+
+        public void visit(AddressAt i) {
+            use(i.getOffset());
+            def = i.getDst();
+        }
+
+        public void visit(BinaryOperator i) {
+            use(i.getLeftOperand());
+            use(i.getRightOperand());
+            def = i.getDst();
+            divides = i.getOperator() == BinaryOperator.Op.Div;
+        }
+
+        public void visit(CompareInst i) {
+            use(i.getLeftOperand());
+            use(i.getRightOperand());
+            def = i.getDst();
+        }
+
+        public void visit(CopyInst i) {
+            use(i.getSrcValue());
+            def = i.getDstVar();
+            if (i.getSrcValue() instanceof Variable) copySrc = (Variable) i.getSrcValue();
+        }
+
+        public void visit(JumpInst i) {
+            use(i.getPredicate());
+        }
+
+        public void visit(LoadInst i) {
+            use(i.getSrcAddress());
+            def = i.getDst();
+        }
+
+        public void visit(StoreInst i) {
+            use(i.getSrcValue());
+            use(i.getDestAddress());
+        }
+
+        public void visit(ReturnInst i) {
+            use(i.getReturnValue());
+        }
+
+        public void visit(CallInst i) {
+            for (Value param : i.getParams()) use(param);
+            def = i.getDst();
+            calls = true;
+        }
+
+        public void visit(UnaryNotInst i) {
+            use(i.getInner());
+            def = i.getDst();
+        }
+    }
+}
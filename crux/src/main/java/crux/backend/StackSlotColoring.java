@@ -0,0 +1,123 @@
+package crux.backend;
+
+import crux.midend.dataflow.LiveVariables;
+import crux.midend.ir.core.*;
+
+import java.util.*;
+
+/**
+ * Packs the variables of a function that did not get a register into as few stack slots as possible. Two variables
+ * interfere when one is written while the other is live, which is checked at every instruction rather than on the
+ * hulls of the {@link LiveIntervals}, so a variable that is dead in a hole of its interval can share its slot with one
+ * that lives in that hole. The interference graph is then colored greedily, taking the variables by the start of
+ * their intervals, and every color becomes one slot.
+ * <p>
+ * The code of an instruction may store its result before it has loaded all of its operands, so the result also
+ * interferes with the operands of its own instruction. The arguments are all written by the prologue, so they
+ * interfere with each other and with everything live at the entry.
+ */
+final class StackSlotColoring {
+    /** The color of each variable by {@link Variable#getSlot}, -1 if it has a register or is never live. */
+    private final int[] mColors;
+    private int mNumColors = 0;
+    private final int mNumVariables;
+
+    /** The neighbors of each variable by slot; a neighbor may be listed more than once. */
+    private final int[][] mAdjacent;
+    private final int[] mDegree;
+
+    StackSlotColoring(Function f, LiveIntervals liveIntervals) {
+        int slots = liveIntervals.getNumSlots();
+        mColors = new int[slots];
+        Arrays.fill(mColors, -1);
+        mAdjacent = new int[slots][];
+        mDegree = new int[slots];
+
+        List<LiveIntervals.Interval> nodes = new ArrayList<>();
+        BitSet onStack = new BitSet(slots);
+        for (LiveIntervals.Interval interval : liveIntervals.getIntervals()) {
+            if (interval.register != null) continue;
+            nodes.add(interval);
+            onStack.set(interval.var.getSlot());
+        }
+        nodes.sort(Comparator.comparingInt(i -> i.start));
+        mNumVariables = nodes.size();
+
+        buildGraph(f, liveIntervals.getLiveness(), onStack);
+
+        int[] taken = new int[nodes.size() + 1];
+        Arrays.fill(taken, -1);
+        for (int k = 0; k < nodes.size(); k++) {
+            int slot = nodes.get(k).var.getSlot();
+            for (int n = 0; n < mDegree[slot]; n++) {
+                int color = mColors[mAdjacent[slot][n]];
+                if (color >= 0) taken[color] = k;
+            }
+            int color = 0;
+            while (taken[color] == k) color++;
+            mColors[slot] = color;
+            mNumColors = Math.max(mNumColors, color + 1);
+        }
+    }
+
+    private void buildGraph(Function f, LiveVariables liveness, BitSet onStack) {
+        BitSet uses = new BitSet();
+        for (BasicBlock block : f.getCFG().getBlocks()) {
+            BitSet live = (BitSet) liveness.getLiveOut(block).clone();
+            live.and(onStack);
+            for (int pos = block.size() - 1; pos >= 0; pos--) {
+                Instruction inst = block.get(pos);
+                uses.clear();
+                LiveVariables.addUses(inst, uses);
+                uses.and(onStack);
+                int def = LiveVariables.getDef(inst);
+                if (def >= 0 && onStack.get(def)) {
+                    interfere(def, live);
+                    interfere(def, uses);
+                    live.clear(def);
+                }
+                live.or(uses);
+            }
+            if (block == f.getCFG().getEntry()) {
+                for (LocalVar arg : f.getArguments()) {
+                    if (onStack.get(arg.getSlot())) live.set(arg.getSlot());
+                }
+                for (int a = live.nextSetBit(0); a >= 0; a = live.nextSetBit(a + 1)) {
+                    for (int b = live.nextSetBit(a + 1); b >= 0; b = live.nextSetBit(b + 1)) addEdge(a, b);
+                }
+            }
+        }
+    }
+
+    private void interfere(int def, BitSet others) {
+        for (int other = others.nextSetBit(0); other >= 0; other = others.nextSetBit(other + 1)) {
+            if (other != def) addEdge(def, other);
+        }
+    }
+
+    private void addEdge(int a, int b) {
+        addNeighbor(a, b);
+        addNeighbor(b, a);
+    }
+
+    private void addNeighbor(int slot, int neighbor) {
+        if (mAdjacent[slot] == null) mAdjacent[slot] = new int[4];
+        else if (mDegree[slot] == mAdjacent[slot].length) mAdjacent[slot] = Arrays.copyOf(mAdjacent[slot], 2 * mDegree[slot]);
+        mAdjacent[slot][mDegree[slot]++] = neighbor;
+    }
+
+    /** Returns the color of a variable that has no register; variables of the same color can share a slot. */
+    int getColor(Variable var) {
+        return mColors[var.getSlot()];
+    }
+
+    /** The number of slots the colored variables need. */
+    int getNumColors() {
+        return mNumColors;
+    }
+
+    /** The number of variables that were colored, which is the number of slots they would need without sharing. */
+    int getNumVariables() {
+        return mNumVariables;
+    }
+}
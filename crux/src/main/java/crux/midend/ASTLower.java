@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Lower from AST to IR
@@ -25,6 +26,9 @@ public final class ASTLower implements NodeVisitor {
     private TypeChecker mTypeChecker;
     private Value mExpressionValue = null;
     private Instruction mLastControlInstruction = null;
+    /** Function bodies still to lower, in source order, once every global symbol is known. */
+    private List<Runnable> mPendingBodies = null;
+    private Set<FunctionDefinition> mSkippedBodies = Set.of();
 
     private void addEdge(Instruction src, Instruction dst) {
         if (src == null) {
@@ -37,9 +41,34 @@ public final class ASTLower implements NodeVisitor {
     public ASTLower(TypeChecker checker) {
         mTypeChecker = checker;
     }
-  
+
+    /**
+     * Lowers the body of one function with its own locals and control state, sharing only the program and the
+     * global symbols, which no longer change by then.
+     * */
+    private ASTLower(ASTLower parent, Function function, Map<Symbol, Variable> localVarMap) {
+        mTypeChecker = parent.mTypeChecker;
+        mCurrentProgram = parent.mCurrentProgram;
+        mCurrentGlobalSymMap = parent.mCurrentGlobalSymMap;
+        mBuiltInFuncMap = parent.mBuiltInFuncMap;
+        mCurrentFunction = function;
+        mCurrentLocalVarMap = localVarMap;
+    }
+
+    /**
+     * Declares every global and function first, then lowers the function bodies independently of each other, in
+     * parallel. The functions keep their source order in the program.
+     * */
     public Program lower(DeclarationList ast) {
+        return lower(ast, Set.of());
+    }
+
+    /** Lowers a program but leaves the bodies of the given functions empty. */
+    public Program lower(DeclarationList ast, Set<FunctionDefinition> skipped) {
+        mSkippedBodies = skipped;
         visit(ast);
+        mPendingBodies.parallelStream().forEach(Runnable::run);
+        mPendingBodies = null;
         return mCurrentProgram;
     }
 
@@ -64,6 +93,7 @@ public final class ASTLower implements NodeVisitor {
         initBuiltInFunctions();
         mCurrentProgram = new Program();
         mCurrentGlobalSymMap = new HashMap<>();
+        mPendingBodies = new ArrayList<>();
         for (Node declaration : declarationList.getChildren()) {
             declaration.accept(this);
         }
@@ -74,7 +104,7 @@ public final class ASTLower implements NodeVisitor {
      * */
     @Override
     public void visit(FunctionDefinition functionDefinition) {
-        mCurrentLocalVarMap = new HashMap<>();
+        var localVarMap = new HashMap<Symbol, Variable>();
         List<LocalVar> paramList = new ArrayList<LocalVar>();
         List<String> names = new ArrayList<>();
         for (Symbol sym : functionDefinition.getParameters()) {
@@ -85,16 +115,14 @@ public final class ASTLower implements NodeVisitor {
             paramList.add(new LocalVar(param, names.get(index)));
             index++;
         }
-        mCurrentFunction = new Function(functionDefinition.getSymbol().getName(), paramList, (FuncType) mTypeChecker.getType(functionDefinition));
+        var function = new Function(functionDefinition.getSymbol().getName(), paramList, (FuncType) mTypeChecker.getType(functionDefinition));
         for (int i = 0; i < functionDefinition.getParameters().size(); i++) {
-            mCurrentLocalVarMap.put(functionDefinition.getParameters().get(i), paramList.get(i));
+            localVarMap.put(functionDefinition.getParameters().get(i), paramList.get(i));
         }
         mCurrentGlobalSymMap.put(functionDefinition.getSymbol(), new AddressVar(mTypeChecker.getType(functionDefinition), functionDefinition.getSymbol().getName()));
-        functionDefinition.getStatements().accept(this);
-        mCurrentProgram.addFunction(mCurrentFunction);
-        mLastControlInstruction = null;
-        mCurrentLocalVarMap = null;
-        mCurrentFunction = null;
+        mCurrentProgram.addFunction(function);
+        if (!mSkippedBodies.contains(functionDefinition))
+            mPendingBodies.add(() -> functionDefinition.getStatements().accept(new ASTLower(this, function, localVarMap)));
     }
 
     @Override
@@ -114,7 +142,7 @@ public final class ASTLower implements NodeVisitor {
             mCurrentGlobalSymMap.put(variableDeclaration.getSymbol(), newAdr);
             mCurrentProgram.addGlobalVar(new GlobalDecl(newAdr, IntegerConstant.get(mCurrentProgram, 1)));
         } else {
-            var newAdr = new LocalVar(mTypeChecker.getType(variableDeclaration), variableDeclaration.getSymbol().getName());
+            var newAdr = mCurrentFunction.getLocalVar(mTypeChecker.getType(variableDeclaration), variableDeclaration.getSymbol().getName());
             mCurrentLocalVarMap.put(variableDeclaration.getSymbol(), newAdr);
         }
     }
@@ -223,7 +251,11 @@ public final class ASTLower implements NodeVisitor {
             return;
         }
         if (operation.getOp().toString().equals("or")) {
-            var ji = new JumpInst((LocalVar) leftVal);
+            var local = mCurrentFunction.getTempVar(mTypeChecker.getType(operation));
+            var cpy = new CopyInst(local, leftVal);
+            addEdge(mLastControlInstruction, cpy);
+            mLastControlInstruction = cpy;
+            var ji = new JumpInst(local);
             addEdge(mLastControlInstruction, ji);
             var newNop = new NopInst();
             ji.setNext(0, newNop);
@@ -231,8 +263,12 @@ public final class ASTLower implements NodeVisitor {
             ji.setNext(1, newNop2);
             mLastControlInstruction = newNop;
             operation.getRight().accept(this);
+            var newCpy = new CopyInst(local, mExpressionValue);
+            addEdge(mLastControlInstruction, newCpy);
+            mLastControlInstruction = newCpy;
             addEdge(mLastControlInstruction, newNop2);
             mLastControlInstruction = newNop2;
+            mExpressionValue = local;
             return;
         }
         var destVar = mCurrentFunction.getTempVar(mTypeChecker.getType(operation));
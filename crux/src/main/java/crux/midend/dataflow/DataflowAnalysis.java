@@ -0,0 +1,134 @@
+package crux.midend.dataflow;
+
+import crux.midend.ir.core.BasicBlock;
+import crux.midend.ir.core.ControlFlowGraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A dataflow analysis over the basic blocks of a {@link ControlFlowGraph} whose facts are bit vectors, such as the
+ * variables that are live or the definitions that reach a point. A subclass picks the direction, the meet (union for
+ * "may" and intersection for "must" problems), the value at the boundary and the transfer function of a block; the
+ * framework iterates a worklist of blocks until nothing changes.
+ * <p>
+ * For a forward analysis the input of a block is the meet of the outputs of its predecessors and the boundary is the
+ * input of the entry. For a backward analysis the input of a block is the meet of the inputs of its successors, its
+ * output is what holds at its start, and the boundary is the input of the blocks that leave the function.
+ */
+public abstract class DataflowAnalysis {
+    public enum Direction { FORWARD, BACKWARD }
+
+    private final ControlFlowGraph mCFG;
+    private final Direction mDirection;
+    private BitSet[] mIn, mOut;
+
+    protected DataflowAnalysis(ControlFlowGraph cfg, Direction direction) {
+        mCFG = cfg;
+        mDirection = direction;
+    }
+
+    public ControlFlowGraph getCFG() {
+        return mCFG;
+    }
+
+    /** The value flowing into the boundary blocks. */
+    protected abstract BitSet boundary();
+
+    /** The value every other block starts with: empty for a union, everything for an intersection. */
+    protected abstract BitSet initial();
+
+    /** Combines the value of another edge into {@code into}. */
+    protected abstract void meet(BitSet into, BitSet other);
+
+    /** Turns the input of a block into its output, in place. */
+    protected abstract void transfer(BasicBlock block, BitSet value);
+
+    /** Computes the fixed point. Called once before the results are read. */
+    protected final void solve() {
+        List<BasicBlock> blocks = mCFG.getBlocks();
+        int n = blocks.size();
+        mIn = new BitSet[n];
+        mOut = new BitSet[n];
+        for (int b = 0; b < n; b++)
+            mOut[b] = initial();
+
+        // Reverse postorder for a forward problem and postorder for a backward one, so most blocks see their final
+        // inputs the first time.
+        Deque<BasicBlock> worklist = new ArrayDeque<>();
+        BitSet queued = new BitSet(n);
+        for (int k = 0; k < n; k++) {
+            worklist.add(blocks.get(mDirection == Direction.FORWARD ? k : n - 1 - k));
+            queued.set(k);
+        }
+        while (!worklist.isEmpty()) {
+            BasicBlock block = worklist.poll();
+            int b = block.getIndex();
+            queued.clear(b);
+
+            BitSet in = input(block);
+            mIn[b] = (BitSet) in.clone();
+            transfer(block, in);
+            if (in.equals(mOut[b]))
+                continue;
+            mOut[b] = in;
+            for (BasicBlock next : dependents(block)) {
+                if (!queued.get(next.getIndex())) {
+                    queued.set(next.getIndex());
+                    worklist.add(next);
+                }
+            }
+        }
+    }
+
+    private BitSet input(BasicBlock block) {
+        BitSet in = null;
+        if (mDirection == Direction.FORWARD) {
+            for (BasicBlock pred : block.getPredecessors())
+                in = meetInto(in, mOut[pred.getIndex()]);
+            if (block == mCFG.getEntry())
+                in = meetInto(in, boundary());
+        } else {
+            boolean exits = block.numSuccessors() == 0;
+            for (int i = 0; i < block.numSuccessors(); i++) {
+                BasicBlock succ = block.getSuccessor(i);
+                if (succ == null) exits = true;
+                else in = meetInto(in, mOut[succ.getIndex()]);
+            }
+            if (exits)
+                in = meetInto(in, boundary());
+        }
+        return in == null ? initial() : in;
+    }
+
+    private BitSet meetInto(BitSet in, BitSet value) {
+        if (in == null)
+            return (BitSet) value.clone();
+        meet(in, value);
+        return in;
+    }
+
+    private List<BasicBlock> dependents(BasicBlock block) {
+        if (mDirection == Direction.BACKWARD)
+            return block.getPredecessors();
+        var succs = new ArrayList<BasicBlock>();
+        for (int i = 0; i < block.numSuccessors(); i++) {
+            if (block.getSuccessor(i) != null)
+                succs.add(block.getSuccessor(i));
+        }
+        return succs;
+    }
+
+    /** The value at the start of a block for a forward analysis, or at its end for a backward one. */
+    public BitSet getIn(BasicBlock block) {
+        return mIn[block.getIndex()];
+    }
+
+    /** The value at the end of a block for a forward analysis, or at its start for a backward one. */
+    public BitSet getOut(BasicBlock block) {
+        return mOut[block.getIndex()];
+    }
+}
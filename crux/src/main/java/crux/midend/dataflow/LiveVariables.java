@@ -0,0 +1,103 @@
+package crux.midend.dataflow;
+
+import crux.midend.ir.core.BasicBlock;
+import crux.midend.ir.core.ControlFlowGraph;
+import crux.midend.ir.core.Instruction;
+import crux.midend.ir.core.Value;
+import crux.midend.ir.core.Variable;
+
+import java.util.BitSet;
+
+/**
+ * The variables live at the start and end of every block: those that some path from there reads before writing them.
+ * Variables are the bits of their {@link Variable#getSlot}; globals, which have no slot, are never live.
+ */
+public final class LiveVariables extends DataflowAnalysis {
+    private final BitSet[] mUse, mDef;
+
+    public LiveVariables(ControlFlowGraph cfg) {
+        super(cfg, Direction.BACKWARD);
+        int n = cfg.getBlocks().size();
+        mUse = new BitSet[n];
+        mDef = new BitSet[n];
+        for (BasicBlock block : cfg.getBlocks()) {
+            // Backwards, so that a write hides the reads after it without a set per instruction.
+            BitSet use = new BitSet(), def = new BitSet();
+            for (int pos = block.size() - 1; pos >= 0; pos--) {
+                Instruction inst = block.get(pos);
+                int dst = getDef(inst);
+                if (dst >= 0) {
+                    use.clear(dst);
+                    def.set(dst);
+                }
+                addUses(inst, use);
+            }
+            mUse[block.getIndex()] = use;
+            mDef[block.getIndex()] = def;
+        }
+        solve();
+    }
+
+    @Override
+    protected BitSet boundary() {
+        return new BitSet();
+    }
+
+    @Override
+    protected BitSet initial() {
+        return new BitSet();
+    }
+
+    @Override
+    protected void meet(BitSet into, BitSet other) {
+        into.or(other);
+    }
+
+    @Override
+    protected void transfer(BasicBlock block, BitSet value) {
+        value.andNot(mDef[block.getIndex()]);
+        value.or(mUse[block.getIndex()]);
+    }
+
+    public BitSet getLiveIn(BasicBlock block) {
+        return getOut(block);
+    }
+
+    public BitSet getLiveOut(BasicBlock block) {
+        return getIn(block);
+    }
+
+    /**
+     * Returns the variables live right after each instruction, indexed by {@link Instruction#getId}. Each set is a
+     * new copy.
+     */
+    public BitSet[] getLiveAfterInstructions() {
+        BitSet[] liveAfter = new BitSet[getCFG().getNumInstructions()];
+        for (BasicBlock block : getCFG().getBlocks()) {
+            BitSet live = (BitSet) getLiveOut(block).clone();
+            for (int pos = block.size() - 1; pos >= 0; pos--) {
+                Instruction inst = block.get(pos);
+                liveAfter[inst.getId()] = (BitSet) live.clone();
+                if (getDef(inst) >= 0)
+                    live.clear(getDef(inst));
+                addUses(inst, live);
+            }
+        }
+        return liveAfter;
+    }
+
+    /** Adds the slots of the variables an instruction reads. */
+    public static void addUses(Instruction inst, BitSet uses) {
+        for (int i = 0; i < inst.numOperands(); i++) {
+            Value operand = inst.getOperand(i);
+            if (operand instanceof Variable && ((Variable) operand).getSlot() >= 0)
+                uses.set(((Variable) operand).getSlot());
+        }
+    }
+
+    /** Returns the slot of the variable an instruction writes, or -1. */
+    public static int getDef(Instruction inst) {
+        Variable dst = inst.getDestVar();
+        return dst == null ? -1 : dst.getSlot();
+    }
+}
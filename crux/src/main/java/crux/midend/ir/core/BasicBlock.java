@@ -0,0 +1,79 @@
+package crux.midend.ir.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A maximal straight-line run of instructions of a {@link Function}: control can only enter at the first instruction
+ * and only leave after the last one. Successors are indexed like the successors of the last instruction, i.e. for a
+ * block ending in a {@link crux.midend.ir.core.insts.JumpInst} successor 0 is the false and successor 1 the true branch.
+ */
+public final class BasicBlock {
+    private final ControlFlowGraph mCFG;
+    private final Instruction[] mInstructions;
+    private BasicBlock[] mSuccessors;
+    private final List<BasicBlock> mPredecessors = new ArrayList<>();
+    private int mIndex;
+
+    BasicBlock(ControlFlowGraph cfg, Instruction[] instructions) {
+        mCFG = cfg;
+        mInstructions = instructions;
+    }
+
+    public ControlFlowGraph getCFG() {
+        return mCFG;
+    }
+
+    /** The position of this block in the reverse postorder of its graph. */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public int size() {
+        return mInstructions.length;
+    }
+
+    public Instruction get(int i) {
+        return mInstructions[i];
+    }
+
+    public Instruction getFirst() {
+        return mInstructions[0];
+    }
+
+    public Instruction getLast() {
+        return mInstructions[mInstructions.length - 1];
+    }
+
+    public List<Instruction> getInstructions() {
+        return Collections.unmodifiableList(Arrays.asList(mInstructions));
+    }
+
+    public int numSuccessors() {
+        return mSuccessors.length;
+    }
+
+    /** Returns the i-th successor, or null if the last instruction has no i-th successor. */
+    public BasicBlock getSuccessor(int i) {
+        return i < mSuccessors.length ? mSuccessors[i] : null;
+    }
+
+    /** The predecessors of this block, one entry per incoming edge. */
+    public List<BasicBlock> getPredecessors() {
+        return Collections.unmodifiableList(mPredecessors);
+    }
+
+    void setSuccessors(BasicBlock[] successors) {
+        mSuccessors = successors;
+    }
+
+    void addPredecessor(BasicBlock pred) {
+        mPredecessors.add(pred);
+    }
+
+    void setIndex(int index) {
+        mIndex = index;
+    }
+}
@@ -0,0 +1,61 @@
+package crux.midend.ir.core;
+
+import java.util.function.LongFunction;
+
+/**
+ * The constants of one {@link Program}, so that every value has a single constant and the constants go away with the
+ * program. Integers are kept in an open addressing table keyed by the plain {@code long}, without boxing.
+ * <p>
+ * Functions are lowered and optimized in parallel, so the pool is synchronized; it is only ever contended by the
+ * threads working on the same program.
+ */
+final class ConstantPool {
+    private long[] mKeys = new long[64];
+    private IntegerConstant[] mIntegers = new IntegerConstant[64];
+    private int mSize = 0;
+    private final BooleanConstant[] mBooleans = new BooleanConstant[2];
+
+    synchronized IntegerConstant getInteger(long value, LongFunction<IntegerConstant> create) {
+        int slot = find(mKeys, mIntegers, value);
+        if (mIntegers[slot] == null) {
+            if (2 * (mSize + 1) > mKeys.length) {
+                grow();
+                slot = find(mKeys, mIntegers, value);
+            }
+            mKeys[slot] = value;
+            mIntegers[slot] = create.apply(value);
+            mSize++;
+        }
+        return mIntegers[slot];
+    }
+
+    synchronized BooleanConstant getBoolean(boolean value, java.util.function.Function<Boolean, BooleanConstant> create) {
+        int slot = value ? 1 : 0;
+        if (mBooleans[slot] == null)
+            mBooleans[slot] = create.apply(value);
+        return mBooleans[slot];
+    }
+
+    /** Returns the slot of the value, or the empty slot where it belongs. The table is never more than half full. */
+    private static int find(long[] keys, IntegerConstant[] integers, long value) {
+        int mask = keys.length - 1;
+        int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (integers[slot] != null && keys[slot] != value)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        long[] keys = new long[2 * mKeys.length];
+        IntegerConstant[] integers = new IntegerConstant[2 * mIntegers.length];
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mIntegers[i] == null)
+                continue;
+            int slot = find(keys, integers, mKeys[i]);
+            keys[slot] = mKeys[i];
+            integers[slot] = mIntegers[i];
+        }
+        mKeys = keys;
+        mIntegers = integers;
+    }
+}
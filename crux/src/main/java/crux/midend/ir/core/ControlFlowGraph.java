@@ -0,0 +1,165 @@
+package crux.midend.ir.core;
+
+import crux.midend.ir.core.insts.ReturnInst;
+
+import java.util.*;
+
+/**
+ * The basic blocks of a {@link Function}, built from its instruction graph. Only instructions reachable from the start
+ * of the function are part of a block, and a {@link ReturnInst} always ends its block without successors, even if the
+ * lowering linked further instructions after it. The graph is cached by the function and becomes invalid as soon as an edge of
+ * one of its instructions changes (see {@link Instruction#setNext}) or the function gets a new start instruction.
+ */
+public final class ControlFlowGraph {
+    private final Function mFunction;
+    private final List<BasicBlock> mBlocks;
+    private int mNumInstructions = 0;
+    private boolean mValid = true;
+
+    ControlFlowGraph(Function function) {
+        mFunction = function;
+        Instruction start = function.getStart();
+        if (start == null) {
+            mBlocks = List.of();
+            return;
+        }
+
+        // Number the reachable instructions in the order they are found and count their incoming edges. An id left
+        // over from an earlier graph is recognized by not pointing back to its instruction.
+        List<Instruction> found = new ArrayList<>();
+        int[] predCount = new int[16];
+        Deque<Instruction> tovisit = new ArrayDeque<>();
+        start.mId = 0;
+        found.add(start);
+        tovisit.push(start);
+        while (!tovisit.isEmpty()) {
+            Instruction inst = tovisit.pop();
+            for (int i = 0; i < numSuccessors(inst); i++) {
+                Instruction child = inst.getNext(i);
+                if (child == null) continue;
+                if (!isFound(child, found)) {
+                    child.mId = found.size();
+                    found.add(child);
+                    tovisit.push(child);
+                    if (predCount.length < found.size()) predCount = Arrays.copyOf(predCount, 2 * found.size());
+                }
+                predCount[child.mId]++;
+            }
+        }
+
+        BitSet leaders = new BitSet(found.size());
+        leaders.set(start.mId);
+        for (Instruction inst : found) {
+            if (predCount[inst.mId] > 1) leaders.set(inst.mId);
+            if (numSuccessors(inst) > 1) {
+                for (int i = 0; i < numSuccessors(inst); i++) {
+                    if (inst.getNext(i) != null) leaders.set(inst.getNext(i).mId);
+                }
+            }
+        }
+
+        BasicBlock[] blockOf = new BasicBlock[found.size()];
+        List<BasicBlock> unordered = new ArrayList<>();
+        for (int leader = leaders.nextSetBit(0); leader >= 0; leader = leaders.nextSetBit(leader + 1)) {
+            List<Instruction> body = new ArrayList<>();
+            Instruction inst = found.get(leader);
+            body.add(inst);
+            while (numSuccessors(inst) == 1 && inst.getNext(0) != null && !leaders.get(inst.getNext(0).mId)) {
+                inst = inst.getNext(0);
+                body.add(inst);
+            }
+            BasicBlock block = new BasicBlock(this, body.toArray(new Instruction[0]));
+            for (Instruction member : body) member.mBlock = block;
+            blockOf[leader] = block;
+            unordered.add(block);
+        }
+        for (BasicBlock block : unordered) {
+            Instruction last = block.getLast();
+            BasicBlock[] successors = new BasicBlock[numSuccessors(last)];
+            for (int i = 0; i < successors.length; i++) {
+                if (last.getNext(i) != null) successors[i] = blockOf[last.getNext(i).mId];
+            }
+            block.setSuccessors(successors);
+        }
+
+        mBlocks = reversePostorder(blockOf[start.mId]);
+        for (int i = 0; i < mBlocks.size(); i++) mBlocks.get(i).setIndex(i);
+        // The final ids follow the blocks, so the instructions of a block have consecutive ids.
+        for (BasicBlock block : mBlocks) {
+            for (Instruction inst : block.getInstructions()) inst.mId = mNumInstructions++;
+        }
+        for (BasicBlock block : mBlocks) {
+            for (int i = 0; i < block.numSuccessors(); i++) {
+                if (block.getSuccessor(i) != null) block.getSuccessor(i).addPredecessor(block);
+            }
+        }
+    }
+
+    private static boolean isFound(Instruction inst, List<Instruction> found) {
+        return inst.mId >= 0 && inst.mId < found.size() && found.get(inst.mId) == inst;
+    }
+
+    private static int numSuccessors(Instruction inst) {
+        return inst instanceof ReturnInst ? 0 : inst.numNext();
+    }
+
+    private static List<BasicBlock> reversePostorder(BasicBlock entry) {
+        List<BasicBlock> postorder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> blocks = new ArrayDeque<>();
+        Deque<Integer> nextSucc = new ArrayDeque<>();
+        visited.add(entry);
+        blocks.push(entry);
+        nextSucc.push(0);
+        while (!blocks.isEmpty()) {
+            BasicBlock block = blocks.peek();
+            int i = nextSucc.pop();
+            if (i < block.numSuccessors()) {
+                nextSucc.push(i + 1);
+                BasicBlock succ = block.getSuccessor(i);
+                if (succ != null && visited.add(succ)) {
+                    blocks.push(succ);
+                    nextSucc.push(0);
+                }
+            } else {
+                postorder.add(blocks.pop());
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    public Function getFunction() {
+        return mFunction;
+    }
+
+    public BasicBlock getEntry() {
+        return mBlocks.isEmpty() ? null : mBlocks.get(0);
+    }
+
+    /** All blocks in reverse postorder, starting with the entry block. Empty if the function has no instructions. */
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(mBlocks);
+    }
+
+    /** The number of instructions in all blocks, which is one more than the largest {@link Instruction#getId}. */
+    public int getNumInstructions() {
+        return mNumInstructions;
+    }
+
+    /** Returns the block containing the instruction, or null if the instruction is not part of this graph. */
+    public BasicBlock getBlock(Instruction inst) {
+        BasicBlock block = inst.mBlock;
+        return block != null && block.getCFG() == this ? block : null;
+    }
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    void invalidate() {
+        if (!mValid) return;
+        mValid = false;
+        mFunction.invalidateCFG(this);
+    }
+}
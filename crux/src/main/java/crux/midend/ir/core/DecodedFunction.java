@@ -0,0 +1,235 @@
+package crux.midend.ir.core;
+
+import crux.frontend.types.IntType;
+import crux.midend.ir.core.insts.*;
+
+import java.util.*;
+
+/**
+ * A {@link Function} translated for the fast path of the {@link Emulator}: a flat array of opcodes, each followed by
+ * its operands. Variables live in their slots of a {@code long[]} frame (booleans are 0 or 1, addresses are byte
+ * offsets into global memory), jump targets are positions in the code array, and callees are indices into the
+ * array of all decoded functions, so executing an instruction needs no map lookup, no boxing and no visitor call.
+ * <p>
+ * The layout of each op is documented with its opcode. {@code d} is the destination slot, {@code a} and {@code b}
+ * are operand slots, {@code c} is an index into {@link #constants} and {@code t} a position in {@link #code}.
+ */
+final class DecodedFunction {
+    /** d c: frame[d] = constants[c] */
+    static final int CONST = 0;
+    /** d a: frame[d] = frame[a] */
+    static final int MOVE = 1;
+    /** d c a: frame[d] = constants[c] + 8 * frame[a], where a may be -1 for no offset */
+    static final int ADDRESS = 2;
+    /** d a b */
+    static final int ADD = 3, SUB = 4, MUL = 5, DIV = 6;
+    /** d a b: frame[d] = frame[a] op frame[b] ? 1 : 0 */
+    static final int GE = 7, GT = 8, LE = 9, LT = 10, EQ = 11, NE = 12;
+    /** d a: frame[d] = 1 - frame[a] */
+    static final int NOT = 13;
+    /** d a: frame[d] = memory[frame[a]], as integer or as boolean */
+    static final int LOAD_INT = 14, LOAD_BOOL = 15;
+    /** a b: memory[frame[b]] = frame[a] */
+    static final int STORE = 16;
+    /** a t: if (frame[a] != 0) goto t */
+    static final int BRANCH = 17;
+    /** t */
+    static final int JUMP = 18;
+    /** a: return frame[a] */
+    static final int RETURN = 19;
+    /** (no operands): return from a function without a result */
+    static final int RETURN_VOID = 20;
+    /** d f n a1 .. an: frame[d] = functions[f](frame[a1], .., frame[an]), where d may be -1 */
+    static final int CALL = 21;
+    /** d: frame[d] = readInt() */
+    static final int READ_INT = 22;
+    /** a */
+    static final int PRINT_INT = 23, PRINT_BOOL = 24;
+    /** (no operands) */
+    static final int PRINTLN = 25;
+
+    final String name;
+    final int numArgs;
+    final int[] code;
+    final long[] constants;
+    final int numSlots;
+    /** The position in {@link #code} of every block of the function's control flow graph. */
+    final int[] blockStarts;
+
+    /** How often the function was called and how often it jumped backwards, for {@link Emulator#enableTiering}. */
+    int calls, backEdges;
+    Emulator.CompiledFunction compiled;
+    /** Set once the compiler turned the function down, so that it is not tried again. */
+    boolean uncompilable;
+
+    private DecodedFunction(String name, int numArgs, int[] code, long[] constants, int numSlots, int[] blockStarts) {
+        this.name = name;
+        this.numArgs = numArgs;
+        this.code = code;
+        this.constants = constants;
+        this.numSlots = numSlots;
+        this.blockStarts = blockStarts;
+    }
+
+    /** Returns the index of the block that starts at the given position in {@link #code}. */
+    int blockAt(int pc) {
+        for (int b = 0; b < blockStarts.length; b++) {
+            if (blockStarts[b] == pc)
+                return b;
+        }
+        throw new Error("no block starts at " + pc + " in " + name);
+    }
+
+    /**
+     * Decodes a function. The functions of the program are identified by their index in {@code functionIndex}, and
+     * {@code globalOffsets} holds the address of every global.
+     */
+    static DecodedFunction decode(Function f, Map<String, Integer> functionIndex, Map<AddressVar, Long> globalOffsets) {
+        return new Decoder(f, functionIndex, globalOffsets).decode();
+    }
+
+    private static final class Decoder extends InstVisitor {
+        private final Function mFunction;
+        private final Map<String, Integer> mFunctionIndex;
+        private final Map<AddressVar, Long> mGlobalOffsets;
+        private final List<Long> mConstants = new ArrayList<>();
+        private int[] mCode = new int[64];
+        private int mSize = 0;
+
+        Decoder(Function f, Map<String, Integer> functionIndex, Map<AddressVar, Long> globalOffsets) {
+            mFunction = f;
+            mFunctionIndex = functionIndex;
+            mGlobalOffsets = globalOffsets;
+        }
+
+        DecodedFunction decode() {
+            List<BasicBlock> blocks = mFunction.getCFG().getBlocks();
+            int[] blockStart = new int[blocks.size()];
+            List<int[]> fixups = new ArrayList<>();
+            for (int b = 0; b < blocks.size(); b++) {
+                BasicBlock block = blocks.get(b);
+                blockStart[b] = mSize;
+                for (Instruction inst : block.getInstructions())
+                    inst.accept(this);
+                if (block.getLast() instanceof JumpInst)
+                    fixups.add(new int[] {mSize - 1, block.getSuccessor(1).getIndex()});
+                if (block.getLast() instanceof ReturnInst)
+                    continue;
+                BasicBlock next = block.getSuccessor(0);
+                if (next == null) {
+                    emit(RETURN_VOID);
+                } else if (next.getIndex() != b + 1) {
+                    emit(JUMP, 0);
+                    fixups.add(new int[] {mSize - 1, next.getIndex()});
+                }
+            }
+            if (blocks.isEmpty())
+                emit(RETURN_VOID);
+            for (int[] fixup : fixups)
+                mCode[fixup[0]] = blockStart[fixup[1]];
+
+            long[] constants = new long[mConstants.size()];
+            for (int i = 0; i < constants.length; i++)
+                constants[i] = mConstants.get(i);
+            return new DecodedFunction(mFunction.getName(), mFunction.getArguments().size(),
+                    Arrays.copyOf(mCode, mSize), constants, mFunction.getNumSlots(), blockStart);
+        }
+
+        private int slot(Variable v) {
+            if (v.getSlot() < 0)
+                throw new Error(v + " has no slot in " + mFunction.getName());
+            return v.getSlot();
+        }
+
+        private int constant(long value) {
+            mConstants.add(value);
+            return mConstants.size() - 1;
+        }
+
+        private void emit(int... ops) {
+            if (mSize + ops.length > mCode.length)
+                mCode = Arrays.copyOf(mCode, Math.max(mCode.length * 2, mSize + ops.length));
+            System.arraycopy(ops, 0, mCode, mSize, ops.length);
+            mSize += ops.length;
+        }
+
+        public void visit(AddressAt i) {
+            int offset = i.getOffset() == null ? -1 : slot(i.getOffset());
+            emit(ADDRESS, slot(i.getDst()), constant(mGlobalOffsets.get(i.getBase())), offset);
+        }
+
+        public void visit(BinaryOperator i) {
+            int op = 0;
+            switch (i.getOperator()) {
+                case Add: op = ADD; break;
+                case Sub: op = SUB; break;
+                case Mul: op = MUL; break;
+                case Div: op = DIV; break;
+            }
+            emit(op, slot(i.getDst()), slot(i.getLeftOperand()), slot(i.getRightOperand()));
+        }
+
+        public void visit(CompareInst i) {
+            int op = 0;
+            switch (i.getPredicate()) {
+                case GE: op = GE; break;
+                case GT: op = GT; break;
+                case LE: op = LE; break;
+                case LT: op = LT; break;
+                case EQ: op = EQ; break;
+                case NE: op = NE; break;
+            }
+            emit(op, slot(i.getDst()), slot(i.getLeftOperand()), slot(i.getRightOperand()));
+        }
+
+        public void visit(CopyInst i) {
+            Value src = i.getSrcValue();
+            if (src instanceof IntegerConstant)
+                emit(CONST, slot(i.getDstVar()), constant(((IntegerConstant) src).getValue()));
+            else if (src instanceof BooleanConstant)
+                emit(CONST, slot(i.getDstVar()), constant(((BooleanConstant) src).getValue() ? 1 : 0));
+            else
+                emit(MOVE, slot(i.getDstVar()), slot((Variable) src));
+        }
+
+        public void visit(JumpInst i) {
+            emit(BRANCH, slot(i.getPredicate()), 0);
+        }
+
+        public void visit(LoadInst i) {
+            AddressVar src = i.getSrcAddress();
+            emit(src.getType() instanceof IntType ? LOAD_INT : LOAD_BOOL, slot(i.getDst()), slot(src));
+        }
+
+        public void visit(StoreInst i) {
+            emit(STORE, slot(i.getSrcValue()), slot(i.getDestAddress()));
+        }
+
+        public void visit(UnaryNotInst i) {
+            emit(NOT, slot(i.getDst()), slot(i.getInner()));
+        }
+
+        public void visit(ReturnInst i) {
+            emit(RETURN, slot(i.getReturnValue()));
+        }
+
+        public void visit(CallInst i) {
+            String callee = i.getCallee().getName().substring(1);
+            List<Value> params = i.getParams();
+            switch (callee) {
+                case "readInt": emit(READ_INT, slot(i.getDst())); return;
+                case "printInt": emit(PRINT_INT, slot((Variable) params.get(0))); return;
+                case "printBool": emit(PRINT_BOOL, slot((Variable) params.get(0))); return;
+                case "println": emit(PRINTLN); return;
+            }
+            int[] ops = new int[4 + params.size()];
+            ops[0] = CALL;
+            ops[1] = i.getDst() == null ? -1 : slot(i.getDst());
+            ops[2] = mFunctionIndex.get(callee);
+            ops[3] = params.size();
+            for (int p = 0; p < params.size(); p++)
+                ops[4 + p] = slot((Variable) params.get(p));
+            emit(ops);
+        }
+    }
+}
@@ -1,235 +1,600 @@
 package crux.midend.ir.core;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.io.*;
 import crux.midend.ir.core.insts.*;
 import crux.frontend.types.*;
 
 public class Emulator {
+    /** Runs a function from the start of one of its blocks, with the values of its variables in a frame. */
+    public interface CompiledFunction {
+        long enter(long[] frame, int block);
+    }
+
+    /** Compiles the functions of one run, one at a time. */
+    public interface TierCompiler {
+        /** Returns the compiled code of a function, or null if the function cannot be compiled. */
+        CompiledFunction compile(Function f);
+
+        /** Releases what the compiled code ran on, once the run is over. */
+        void close();
+    }
+
+    /**
+     * Makes the compiler for one run. The compiled code works on the given memory, input and output, and calls the
+     * interpreter for every function that is not compiled (yet).
+     */
+    public interface TierCompilerFactory {
+        TierCompiler create(Program p, GlobalMemory memory, BufferedReader in, PrintStream out, Interpreter interpreter);
+    }
+
+    /** Runs a function in the emulator on behalf of compiled code. */
+    public interface Interpreter {
+        long call(String function, long[] args);
+
+        /** Throws if the run was {@link #cancel cancelled}. Compiled code checks this on every call and loop. */
+        void checkCancelled();
+    }
+
+    /** By default, a function is compiled after this many calls ... */
+    public static final int TIER_UP_CALLS = 1000;
+    /** ... or after this many jumps back to the start of a loop within it. */
+    public static final int TIER_UP_BACK_EDGES = 10000;
+    int tierUpCalls = TIER_UP_CALLS, tierUpBackEdges = TIER_UP_BACK_EDGES;
+
+    Program program;
     HashMap<String, Function> functions = new HashMap<>();
     Stack<CallContext> stack = new Stack<>();
-    HashMap<Long, Long> globalMap = new HashMap<>();
-    HashMap<AddressVar, Long> offsetMap = new HashMap<>();
+    GlobalMemory memory;
+    /** The frame of the function running at each call depth, reused by every later call at that depth. */
+    long[][] framePool = new long[16][];
+
+    TierCompilerFactory tierCompilerFactory;
+    TierCompiler tierCompiler;
+    /** The decoded functions, by their index in functionIndex. */
+    DecodedFunction[] decoded;
+    Map<String, Integer> functionIndex;
+    /**
+     * The first depth of the frame pool that no running interpreter loop uses. Compiled code that calls back into the
+     * emulator starts there.
+     */
+    int freeDepth = 0;
 
     BufferedReader br;
     PrintStream out;
-    public static boolean DEBUG = false;
+    boolean debug = false;
+    volatile boolean cancelled = false;
   
     public Emulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
         br = new BufferedReader(new InputStreamReader(emulatorInput));
         out = new PrintStream(emulatorOutput);
+        program = p;
 
         for(Iterator<Function> func_it = p.getFunctions(); func_it.hasNext(); ) {
             Function f = func_it.next();
             functions.put(f.getName(), f);
         }
-        long offset = 0;
-        for(Iterator<GlobalDecl> glob_it = p.getGlobals(); glob_it.hasNext(); ) {
-            GlobalDecl g = glob_it.next();
-            offsetMap.put(g.getAllocatedAddress(), offset);
-            offset += ((IntegerConstant)g.getNumElement()).getValue() * 8;
-        }
+        memory = new GlobalMemory(p, out);
     }
 
+    /**
+     * Runs the main function. Unless the emulator is debugging, every function is first decoded into a flat array of
+     * ops (see {@link DecodedFunction}) which then runs without going through the instruction visitors.
+     */
     public void run() {
+        if (debug)
+            interpret();
+        else
+            runDecoded();
+    }
+
+    /** Interprets every instruction through the visitors and prints a trace of each one. */
+    public void enableDebug() {
+        debug = true;
+    }
+
+    /**
+     * Lets hot functions run compiled: a function is handed to the compiler once it has been called
+     * {@link #TIER_UP_CALLS} times, and a loop that has jumped back {@link #TIER_UP_BACK_EDGES} times continues in
+     * compiled code right where it is (on-stack replacement). Each function is compiled on its own; one the compiler
+     * cannot take keeps being interpreted, also when compiled code calls it. Only the decoded fast path tiers up.
+     */
+    public void enableTiering(TierCompilerFactory factory) {
+        tierCompilerFactory = factory;
+    }
+
+    /**
+     * Stops a run from another thread: the running program throws a {@link CancellationException} at its next call
+     * or jump back to the start of a loop, also in compiled code.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Changes how many calls or loop iterations make a function hot (see {@link #enableTiering}). */
+    public void setTierUpThresholds(int calls, int backEdges) {
+        tierUpCalls = calls;
+        tierUpBackEdges = backEdges;
+    }
+
+    private void interpret() {
         Function main = functions.get("main");
-        CallContext mainc = new CallContext(main, null, null);
+        CallContext mainc = new CallContext(main, frame(0, main.getNumSlots()), null);
         stack.push(mainc);
         while(!stack.isEmpty()) {
+            checkCancelled();
             CallContext c = stack.peek();
-            if (c.pc == null) {
+            if (c.block == null) {
                 //Handle implicit return from void function
                 stack.pop();
             } else {
-                c.pc.accept(c);
+                c.block.get(c.index).accept(c);
+            }
+        }
+    }
+
+    private void runDecoded() {
+        functionIndex = new HashMap<>();
+        List<Function> funcs = new ArrayList<>();
+        for (Iterator<Function> it = program.getFunctions(); it.hasNext(); ) {
+            Function f = it.next();
+            functionIndex.put(f.getName(), funcs.size());
+            funcs.add(f);
+        }
+        decoded = new DecodedFunction[funcs.size()];
+        for (int i = 0; i < decoded.length; i++)
+            decoded[i] = DecodedFunction.decode(funcs.get(i), functionIndex, memory.getOffsets());
+
+        DecodedFunction main = decoded[functionIndex.get("main")];
+        try {
+            call(main, frame(0, main.numSlots), 0);
+        } finally {
+            if (tierCompiler != null)
+                tierCompiler.close();
+        }
+    }
+
+    /** Runs a function for compiled code that calls it while it is not compiled (see {@link Interpreter}). */
+    private long callFromCompiled(String name, long[] args) {
+        DecodedFunction fn = decoded[functionIndex.get(name)];
+        long[] frame = frame(freeDepth, fn.numSlots);
+        System.arraycopy(args, 0, frame, 0, args.length);
+        return call(fn, frame, freeDepth);
+    }
+
+    /** Runs a function whose frame is at the given depth of the frame pool, compiled if it is or just became hot. */
+    private long call(DecodedFunction fn, long[] frame, int depth) {
+        if (tierCompilerFactory != null && (fn.compiled != null || (++fn.calls >= tierUpCalls && tierUp(fn))))
+            return enterCompiled(fn, frame, 0, depth);
+        return interpretDecoded(fn, frame, depth);
+    }
+
+    private long enterCompiled(DecodedFunction fn, long[] frame, int block, int depth) {
+        int saved = freeDepth;
+        // Compiled code copies its frame into locals before anything else, so the frame is free again right away
+        freeDepth = depth;
+        try {
+            return fn.compiled.enter(frame, block);
+        } finally {
+            freeDepth = saved;
+        }
+    }
+
+    /** Interprets a call of a function whose frame is at depth base of the frame pool, and returns its result. */
+    private long interpretDecoded(DecodedFunction fn, long[] frame, int base) {
+        // The call stack, one entry per active caller; the frame at each depth comes from the frame pool
+        int depth = 0;
+        DecodedFunction[] callers = new DecodedFunction[16];
+        int[] returnPcs = new int[16];
+        int[] resultSlots = new int[16];
+
+        int[] code = fn.code;
+        long[] constants = fn.constants;
+        int pc = 0;
+        while (true) {
+            long result;
+            returning: {
+                switch (code[pc]) {
+                case DecodedFunction.CONST:
+                    frame[code[pc + 1]] = constants[code[pc + 2]];
+                    pc += 3;
+                    continue;
+                case DecodedFunction.MOVE:
+                    frame[code[pc + 1]] = frame[code[pc + 2]];
+                    pc += 3;
+                    continue;
+                case DecodedFunction.ADDRESS: {
+                    long address = constants[code[pc + 2]];
+                    if (code[pc + 3] >= 0)
+                        address += 8 * frame[code[pc + 3]];
+                    frame[code[pc + 1]] = address;
+                    pc += 4;
+                    continue;
+                }
+                case DecodedFunction.ADD:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] + frame[code[pc + 3]];
+                    pc += 4;
+                    continue;
+                case DecodedFunction.SUB:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] - frame[code[pc + 3]];
+                    pc += 4;
+                    continue;
+                case DecodedFunction.MUL:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] * frame[code[pc + 3]];
+                    pc += 4;
+                    continue;
+                case DecodedFunction.DIV:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] / frame[code[pc + 3]];
+                    pc += 4;
+                    continue;
+                case DecodedFunction.GE:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] >= frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    continue;
+                case DecodedFunction.GT:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] > frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    continue;
+                case DecodedFunction.LE:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] <= frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    continue;
+                case DecodedFunction.LT:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] < frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    continue;
+                case DecodedFunction.EQ:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] == frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    continue;
+                case DecodedFunction.NE:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] != frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    continue;
+                case DecodedFunction.NOT:
+                    frame[code[pc + 1]] = 1 - frame[code[pc + 2]];
+                    pc += 3;
+                    continue;
+                case DecodedFunction.LOAD_INT:
+                case DecodedFunction.LOAD_BOOL: {
+                    long value = memory.load(frame[code[pc + 2]]);
+                    frame[code[pc + 1]] = code[pc] == DecodedFunction.LOAD_INT ? value : (value != 0 ? 1 : 0);
+                    pc += 3;
+                    continue;
+                }
+                case DecodedFunction.STORE:
+                    memory.store(frame[code[pc + 2]], frame[code[pc + 1]]);
+                    pc += 3;
+                    continue;
+                case DecodedFunction.BRANCH:
+                case DecodedFunction.JUMP: {
+                    int target;
+                    if (code[pc] == DecodedFunction.JUMP)
+                        target = code[pc + 1];
+                    else
+                        target = frame[code[pc + 1]] != 0 ? code[pc + 2] : pc + 3;
+                    // A jump backwards closes a loop; once the loop is hot, the rest of the call runs compiled
+                    if (target <= pc) {
+                        checkCancelled();
+                        if (tierCompilerFactory != null && ++fn.backEdges >= tierUpBackEdges && tierUp(fn)) {
+                            result = enterCompiled(fn, frame, fn.blockAt(target), base + depth);
+                            break returning;
+                        }
+                    }
+                    pc = target;
+                    continue;
+                }
+                case DecodedFunction.CALL: {
+                    checkCancelled();
+                    DecodedFunction callee = decoded[code[pc + 2]];
+                    int numArgs = code[pc + 3];
+                    long[] calleeFrame = frame(base + depth + 1, callee.numSlots);
+                    for (int p = 0; p < numArgs; p++)
+                        calleeFrame[p] = frame[code[pc + 4 + p]];
+                    if (tierCompilerFactory != null && (callee.compiled != null
+                            || (++callee.calls >= tierUpCalls && tierUp(callee)))) {
+                        long value = enterCompiled(callee, calleeFrame, 0, base + depth + 1);
+                        if (code[pc + 1] >= 0)
+                            frame[code[pc + 1]] = value;
+                        pc += 4 + numArgs;
+                        continue;
+                    }
+                    if (depth == callers.length) {
+                        callers = Arrays.copyOf(callers, depth * 2);
+                        returnPcs = Arrays.copyOf(returnPcs, depth * 2);
+                        resultSlots = Arrays.copyOf(resultSlots, depth * 2);
+                    }
+                    callers[depth] = fn;
+                    returnPcs[depth] = pc + 4 + numArgs;
+                    resultSlots[depth] = code[pc + 1];
+                    depth++;
+                    fn = callee;
+                    code = fn.code;
+                    constants = fn.constants;
+                    frame = calleeFrame;
+                    pc = 0;
+                    continue;
+                }
+                case DecodedFunction.RETURN:
+                    result = frame[code[pc + 1]];
+                    break returning;
+                case DecodedFunction.RETURN_VOID:
+                    result = 0;
+                    break returning;
+                case DecodedFunction.READ_INT:
+                    try {
+                        out.print("int?");
+                        String line = br.readLine();
+                        frame[code[pc + 1]] = Long.valueOf(line);
+                    } catch (IOException e) {
+                        throw new Error("Error in inputting Integer.");
+                    }
+                    pc += 2;
+                    continue;
+                case DecodedFunction.PRINT_INT:
+                    out.print(frame[code[pc + 1]]);
+                    pc += 2;
+                    continue;
+                case DecodedFunction.PRINT_BOOL:
+                    out.print(frame[code[pc + 1]] != 0);
+                    pc += 2;
+                    continue;
+                case DecodedFunction.PRINTLN:
+                    out.println("");
+                    pc += 1;
+                    continue;
+                default:
+                    throw new Error("unknown op " + code[pc] + " in " + fn.name);
+                }
             }
+
+            if (depth == 0)
+                return result;
+            depth--;
+            fn = callers[depth];
+            code = fn.code;
+            constants = fn.constants;
+            frame = framePool[base + depth];
+            pc = returnPcs[depth];
+            if (resultSlots[depth] >= 0)
+                frame[resultSlots[depth]] = result;
         }
     }
 
+    /**
+     * Switches a function to its compiled code, compiling it the first time. Returns false if the function cannot be
+     * compiled, which is only tried once; the function is then interpreted from here on.
+     */
+    private boolean tierUp(DecodedFunction fn) {
+        if (fn.compiled != null || fn.uncompilable)
+            return fn.compiled != null;
+        if (tierCompiler == null)
+            tierCompiler = tierCompilerFactory.create(program, memory, br, out, new Interpreter() {
+                @Override
+                public long call(String function, long[] args) {
+                    return callFromCompiled(function, args);
+                }
+
+                @Override
+                public void checkCancelled() {
+                    Emulator.this.checkCancelled();
+                }
+            });
+        fn.compiled = tierCompiler.compile(functions.get(fn.name));
+        fn.uncompilable = fn.compiled == null;
+        return fn.compiled != null;
+    }
+
+    void checkCancelled() {
+        if (cancelled)
+            throw new CancellationException("the program was stopped");
+    }
+
+    /** Returns the pooled frame for the given call depth, cleared and with room for the given number of slots. */
+    long[] frame(int depth, int numSlots) {
+        if (depth == framePool.length)
+            framePool = Arrays.copyOf(framePool, depth * 2);
+        long[] frame = framePool[depth];
+        if (frame == null || frame.length < numSlots)
+            framePool[depth] = frame = new long[numSlots];
+        else
+            Arrays.fill(frame, 0, numSlots, 0);
+        return frame;
+    }
+
     void debug(String msg) {
-        if (DEBUG)
+        if (debug)
             out.println(msg);
     }
+
+    /** Formats the value of a variable for the debug trace: booleans as true or false, as the IR types them. */
+    static Object debugValue(Value var, long value) {
+        if (var.getType() instanceof BoolType)
+            return value != 0;
+        return value;
+    }
   
     class CallContext extends InstVisitor {
         Function f;
-        Instruction pc;
-        HashMap<Variable, Object> localMap;
+        BasicBlock block;
+        int index;
+        long[] frame;
         LocalVar retval;
     
-        CallContext(Function f, Object[] arguments, LocalVar retval) {
+        CallContext(Function f, long[] frame, LocalVar retval) {
             this.f = f;
-            pc = f.getStart();
-            localMap = new HashMap<>();
-            if (arguments != null) {
-                int index = 0;
-                for(LocalVar arg : f.getArguments()) {
-                    localMap.put(arg, arguments[index++]);
-                }
-            }
+            block = f.getCFG().getEntry();
+            index = 0;
+            this.frame = frame;
             this.retval = retval;
         }
 
+        /** Moves on to the given successor of the current instruction. */
+        void next(int succ) {
+            if (index + 1 < block.size()) {
+                index++;
+            } else {
+                block = block.getSuccessor(succ);
+                index = 0;
+            }
+        }
+
         public void visit(AddressAt i) {
             AddressVar base = i.getBase();
-            long address = offsetMap.get(base);
-            Value v = i.getOffset();
+            long address = memory.getOffset(base);
+            Variable v = i.getOffset();
             if (v != null) {
-                address += 8 * ((Long) localMap.get(v));
+                address += 8 * frame[v.getSlot()];
             }
-            localMap.put(i.getDst(), address);
+            frame[i.getDst().getSlot()] = address;
             debug("AddressAt: "+i.getDst()+" = "+address);
-            pc = pc.getNext(0);
+            next(0);
         }
 
         public void visit(BinaryOperator i) {
-            Object left = localMap.get(i.getLeftOperand());
-            Object right = localMap.get(i.getRightOperand());
-            Object result = null;
+            long left = frame[i.getLeftOperand().getSlot()];
+            long right = frame[i.getRightOperand().getSlot()];
+            long result = 0;
             switch (i.getOperator()) {
-            case Add: result = ((Long) left) + ((Long)right); break;
-            case Sub: result = ((Long) left) - ((Long)right); break;
-            case Mul: result = ((Long) left) * ((Long)right); break;
-            case Div: result = ((Long) left) / ((Long)right); break;
+            case Add: result = left + right; break;
+            case Sub: result = left - right; break;
+            case Mul: result = left * right; break;
+            case Div: result = left / right; break;
             }
-            localMap.put(i.getDst(), result);
+            frame[i.getDst().getSlot()] = result;
             debug("BinaryOperator: "+i.getDst() +"="+left+i.getOperator()+right);
-            pc = pc.getNext(0);
+            next(0);
         }
       
         public void visit(CompareInst i) {
-            Long left = (Long) localMap.get(i.getLeftOperand());
-            Long right = (Long) localMap.get(i.getRightOperand());
-            Boolean result = null;
+            long left = frame[i.getLeftOperand().getSlot()];
+            long right = frame[i.getRightOperand().getSlot()];
+            boolean result = false;
             switch(i.getPredicate()) {
             case GE: result = left >= right; break;
             case GT: result = left > right; break;
             case LE: result = left <= right; break;
             case LT: result = left < right; break;
-            case EQ: result = left.equals(right); break;
-            case NE: result = !left.equals(right); break;
+            case EQ: result = left == right; break;
+            case NE: result = left != right; break;
             }
-            localMap.put(i.getDst(), result);
+            frame[i.getDst().getSlot()] = result ? 1 : 0;
             debug("CompareInst: "+i.getDst() +"="+left+i.getPredicate()+right);
-            pc = pc.getNext(0);
+            next(0);
         }
       
         public void visit(CopyInst i) {
             Value srcval = i.getSrcValue();
-            Object val;
+            long val;
             if (srcval instanceof IntegerConstant) {
-                val = Long.valueOf(((IntegerConstant) srcval).getValue());
+                val = ((IntegerConstant) srcval).getValue();
             } else if (srcval instanceof BooleanConstant) {
-                val = ((BooleanConstant) srcval).getValue();
+                val = ((BooleanConstant) srcval).getValue() ? 1 : 0;
             } else {
-                val = localMap.get(srcval);
+                val = frame[((Variable) srcval).getSlot()];
             }
 
-            debug("CopyInst: "+i.getDstVar()+"="+val);
-            localMap.put(i.getDstVar(), val);
-            pc = pc.getNext(0);
+            debug("CopyInst: "+i.getDstVar()+"="+debugValue(i.getDstVar(), val));
+            frame[i.getDstVar().getSlot()] = val;
+            next(0);
         }
       
         public void visit(JumpInst i) {
-            Boolean pred = (Boolean) localMap.get(i.getPredicate());
+            boolean pred = frame[i.getPredicate().getSlot()] != 0;
             debug("Jump: "+i.getPredicate()+"="+pred);
-            pc = pred ? pc.getNext(1) : pc.getNext(0);
+            next(pred ? 1 : 0);
         }
       
         public void visit(LoadInst i) {
             AddressVar var = i.getSrcAddress();
-            Long address = (Long) localMap.get(var);
-            Long value = globalMap.get(address);
-            if (value == null) {
-                out.println("Reading from uninitialized memory");
-                value = Long.valueOf(0);
-            }
+            long address = frame[var.getSlot()];
+            long value = memory.load(address);
             
-            Object val;
+            long val;
             if (var.getType() instanceof IntType) {
               val = value;
             } else {
-              val = Boolean.valueOf(value != 0);
+              val = value != 0 ? 1 : 0;
             } 
             
-            debug("LoadInst: "+i.getDst()+"="+val);
-            localMap.put(i.getDst(), val);
-            pc = pc.getNext(0);
+            debug("LoadInst: "+i.getDst()+"="+debugValue(i.getDst(), val));
+            frame[i.getDst().getSlot()] = val;
+            next(0);
         }
       
         public void visit(NopInst i) {
             //Do nothing
             debug("Nop:");
-            pc = pc.getNext(0);
+            next(0);
         }
       
         public void visit(StoreInst i) {
-            Value srcval = i.getSrcValue();
-            Object val = localMap.get(srcval);
-            AddressVar dst = i.getDestAddress();
-            Long address = (Long) localMap.get(dst);
-            debug("StoreInst: *"+address+"="+val);
-
-            if (val instanceof Long) {
-                globalMap.put(address, (Long) val);
-            } else if (val instanceof Boolean) {
-                globalMap.put(address, ((Boolean)val) ? Long.valueOf(1) : Long.valueOf(0));
-            }
-            pc = pc.getNext(0);
+            long val = frame[i.getSrcValue().getSlot()];
+            long address = frame[i.getDestAddress().getSlot()];
+            debug("StoreInst: *"+address+"="+debugValue(i.getSrcValue(), val));
+            memory.store(address, val);
+            next(0);
         }
 
         public void visit(ReturnInst i) {
-            Object val = i.getReturnValue() != null ? localMap.get(i.getReturnValue()) : null;
-            debug("ReturnInst: "+ val);
+            long val = i.getReturnValue() != null ? frame[i.getReturnValue().getSlot()] : 0;
+            debug("ReturnInst: "+ (i.getReturnValue() != null ? debugValue(i.getReturnValue(), val) : null));
             //Remove ourselves from the stack
             stack.pop();
             //Return value to caller
             if (!stack.isEmpty()) {
                 CallContext caller = stack.peek();
                 if (retval != null)
-                    caller.localMap.put(retval, val);
+                    caller.frame[retval.getSlot()] = val;
             }
         }
 
         public void visit(CallInst i) {
             List<Value> params = i.getParams();
-            Object[] args = new Object[params.size()];
+            long[] args = new long[params.size()];
             for(int j = 0; j < args.length; j++) {
-                args[j] = localMap.get(params.get(j));
+                args[j] = frame[((Variable) params.get(j)).getSlot()];
             }
 
             AddressVar varCallee = i.getCallee();
             //Chop off leading %
             String fName = varCallee.getName().substring(1);
-            debug("Calling "+fName + " with " + Arrays.toString(args));
+            if (debug) {
+                Object[] values = new Object[args.length];
+                for (int j = 0; j < args.length; j++)
+                    values[j] = debugValue(params.get(j), args[j]);
+                debug("Calling "+fName + " with " + Arrays.toString(values));
+            }
 
             if (fName.equals("readInt")) {
                 try {
                     out.print("int?");
                     String line = br.readLine();
-                    localMap.put(i.mDestVar, Long.valueOf(line));
+                    frame[i.getDst().getSlot()] = Long.valueOf(line);
                 } catch (IOException e) {
                     throw new Error("Error in inputting Integer.");
                 }
             } else if (fName.equals("printBool")) {
-                out.print(args[0]);
+                out.print(args[0] != 0);
             } else if (fName.equals("printInt")) {
                 out.print(args[0]);
             } else if (fName.equals("println")) {
                 out.println("");
             } else {
                 Function f = functions.get(fName);
-                CallContext callee = new CallContext(f, args, (LocalVar)  i.getDst());
+                long[] calleeFrame = frame(stack.size(), f.getNumSlots());
+                System.arraycopy(args, 0, calleeFrame, 0, args.length);
+                CallContext callee = new CallContext(f, calleeFrame, (LocalVar)  i.getDst());
                 stack.push(callee);
             }
-            pc = pc.getNext(0);
+            next(0);
         }
 
         public void visit(UnaryNotInst i) {
-            Object left = localMap.get(i.getInner());
-            Object result = ! ((Boolean) left);
-            localMap.put(i.getDst(), result);
+            boolean result = frame[i.getInner().getSlot()] == 0;
+            frame[i.getDst().getSlot()] = result ? 1 : 0;
             debug("UnaryNotInst: "+result);
-            pc = pc.getNext(0);
+            next(0);
         } 
     }
 }
@@ -20,7 +20,9 @@ public final class Function implements Formattable {
 
     private static final int FUNC_FORMAT_INDENT = 2;
     private int mTempVarCounter, mTempAddressVarCounter;
+    private int mNumSlots;
     private Instruction startInstruction;
+    private ControlFlowGraph mCFG;
 
     public Function(String name, List<LocalVar> args, FuncType funcType) {
         mFuncName = name;
@@ -28,6 +30,8 @@ public final class Function implements Formattable {
         mFuncType = funcType;
         mTempVarCounter = 0;
         mTempAddressVarCounter = 0;
+        for (LocalVar arg : mArgs)
+            addSlot(arg);
     }
 
     public List<LocalVar> getArguments() {
@@ -38,13 +42,31 @@ public final class Function implements Formattable {
 
     public FuncType getFuncType() { return mFuncType; }
 
+    /** Creates a named local variable of this function. */
+    public LocalVar getLocalVar(Type type, String name) {
+        return addSlot(new LocalVar(type, name));
+    }
+
     public LocalVar getTempVar(Type type) {
         var name = String.format("t%d", mTempVarCounter++);
-        return new LocalVar(type, name);
+        return addSlot(new LocalVar(type, name));
     }
     public AddressVar getTempAddressVar(Type type) {
         var name = String.format("t%d", mTempAddressVarCounter++);
-        return new AddressVar(type, name);
+        return addSlot(new AddressVar(type, name));
+    }
+
+    /**
+     * Returns the number of slots in a frame of this function. Every argument, local and temporary variable gets its
+     * own slot when it is created, the arguments first, so slots are dense indices from 0 to this number.
+     */
+    public int getNumSlots() {
+        return mNumSlots;
+    }
+
+    private <V extends Variable> V addSlot(V var) {
+        var.setSlot(mNumSlots++);
+        return var;
     }
 
     public Instruction getStart() {
@@ -53,6 +75,23 @@ public final class Function implements Formattable {
   
     public void setStart(Instruction inst) {
         startInstruction = inst;
+        if (mCFG != null)
+            mCFG.invalidate();
+    }
+
+    /**
+     * Returns the basic blocks of this function. The graph is built on first use and cached until the instruction
+     * graph changes.
+     */
+    public ControlFlowGraph getCFG() {
+        if (mCFG == null)
+            mCFG = new ControlFlowGraph(this);
+        return mCFG;
+    }
+
+    void invalidateCFG(ControlFlowGraph cfg) {
+        if (mCFG == cfg)
+            mCFG = null;
     }
 
     @Override
@@ -77,7 +116,8 @@ public final class Function implements Formattable {
         funcDotBuilder.append(" ".repeat(indent))
                 .append(String.format("label=\"%s\";\n", funcHeader));
 
-        // Print nodes
+        // Print nodes, numbered in the order a depth first walk over the instructions reaches them, which does not
+        // depend on the basic blocks and keeps the output the same as before there were any
         int nodeCounter = 0;
         final var nodePrefix = funcName + "_n";
         Map<Instruction, String> nodeIdMap = new HashMap<>();
@@ -85,8 +125,10 @@ public final class Function implements Formattable {
         Instruction start = getStart();
         Stack<Instruction> tovisit = new Stack<>();
 
-        tovisit.add(start);
-        nodeIdMap.put(start, nodePrefix+(nodeCounter++));
+        if (start != null) {
+            tovisit.add(start);
+            nodeIdMap.put(start, nodePrefix+(nodeCounter++));
+        }
 
         while(!tovisit.isEmpty()) {
             Instruction inst = tovisit.pop();
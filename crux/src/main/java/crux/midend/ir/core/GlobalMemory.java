@@ -0,0 +1,62 @@
+package crux.midend.ir.core;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The global variables and arrays of a {@link Program} as the emulators see them: laid out one after the other in a
+ * single {@code long[]}, one element per 8 bytes, so that an address is the byte offset of an element. A bitmap
+ * records which elements have been written, and reading any other element prints the same diagnostic as always.
+ */
+public final class GlobalMemory {
+    private final Map<AddressVar, Long> mOffsets = new HashMap<>();
+    private final long[] mMemory;
+    /** One bit per element of mMemory, set once the element has been written. */
+    private final long[] mInitialized;
+    private final PrintStream mOut;
+
+    public GlobalMemory(Program p, PrintStream out) {
+        long offset = 0;
+        for (Iterator<GlobalDecl> it = p.getGlobals(); it.hasNext(); ) {
+            GlobalDecl g = it.next();
+            mOffsets.put(g.getAllocatedAddress(), offset);
+            offset += ((IntegerConstant) g.getNumElement()).getValue() * 8;
+        }
+        mMemory = new long[(int) (offset / 8)];
+        mInitialized = new long[(mMemory.length + 63) / 64];
+        mOut = out;
+    }
+
+    /** Returns the byte offset of a global, or null if the address does not belong to a global. */
+    public Long getOffset(AddressVar global) {
+        return mOffsets.get(global);
+    }
+
+    Map<AddressVar, Long> getOffsets() {
+        return mOffsets;
+    }
+
+    /** Reads the element at a byte address. Reading an element that was never written reads 0. */
+    public long load(long address) {
+        int index = elementIndex(address);
+        if ((mInitialized[index >> 6] & (1L << index)) == 0) {
+            mOut.println("Reading from uninitialized memory");
+            return 0;
+        }
+        return mMemory[index];
+    }
+
+    public void store(long address, long value) {
+        int index = elementIndex(address);
+        mMemory[index] = value;
+        mInitialized[index >> 6] |= 1L << index;
+    }
+
+    private int elementIndex(long address) {
+        if (address < 0 || address >= 8L * mMemory.length || (address & 7) != 0)
+            throw new Error("Memory access out of bounds at address " + address);
+        return (int) (address >> 3);
+    }
+}
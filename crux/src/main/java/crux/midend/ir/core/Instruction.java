@@ -2,48 +2,114 @@ package crux.midend.ir.core;
 
 import crux.midend.ir.Formattable;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Vector;
+import java.util.Objects;
 import crux.midend.ir.core.insts.InstVisitor;
 
 /**
  * The base class for all instructions. Every instruction consists of a destination variable and a list of operands.
  * Note that not every instruction needs a destination variable (for example a jump instruction that takes a target
  * address as operand). Further, the list operands can be empty as well (e.g. a nop instruction that does nothing.)
+ * <p>
+ * Programs can have millions of instructions, so they are kept small: the operands are a plain array and the at most
+ * two successors are two fields.
  */
 public abstract class Instruction implements Formattable {
+    private static final Value[] NO_OPERANDS = new Value[0];
+
     protected Variable mDestVar;
-    protected List<Value> mOperands;
-    protected Vector<Instruction> next;
+    protected Value[] mOperands;
+    private Instruction mNext0, mNext1;
+    private byte mNumNext;
+    /** The block of the cached control flow graph this instruction belongs to, if any. */
+    BasicBlock mBlock;
+    /** The position of this instruction in that graph (see {@link #getId}). */
+    int mId = -1;
   
     protected Instruction(Variable destVar, List<Value> operands) {
         mDestVar = destVar;
-        mOperands = List.copyOf(operands);
-        next = new Vector<>();
+        mOperands = toArray(operands);
     }
 
     protected Instruction(List<Value> operands) {
         mDestVar = null;
-        mOperands = List.copyOf(operands);
-        next = new Vector<>();
+        mOperands = toArray(operands);
+    }
+
+    private static Value[] toArray(List<Value> operands) {
+        if (operands.isEmpty())
+            return NO_OPERANDS;
+        var array = operands.toArray(NO_OPERANDS);
+        for (Value operand : array)
+            Objects.requireNonNull(operand);
+        return array;
     }
   
     public abstract void accept(InstVisitor v);
 
+    /**
+     * Returns the dense index of this instruction in the control flow graph of its function: the graph numbers its
+     * instructions from 0 block by block, so analyses can keep their facts in arrays instead of maps. Only valid while
+     * the instruction is part of the current graph (see {@link ControlFlowGraph#getBlock}).
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /** Returns the destination variable, or null if the instruction does not write one. */
+    public Variable getDestVar() {
+        return mDestVar;
+    }
+
+    /** Replaces the destination variable. The new variable has to be of the same kind as the old one. */
+    public void setDestVar(Variable destVar) {
+        mDestVar = destVar;
+    }
+
+    /** Returns a read-only view of the operands; {@link #getOperand} and {@link #numOperands} allocate nothing. */
+    public List<Value> getOperands() {
+        return Collections.unmodifiableList(Arrays.asList(mOperands));
+    }
+
+    public Value getOperand(int i) {
+        return mOperands[i];
+    }
+
+    public int numOperands() {
+        return mOperands.length;
+    }
+
+    /**
+     * Replaces the i-th operand. The getters of the concrete instructions cast their operands, so the new value has
+     * to be of the same kind as the old one (e.g. a {@link LocalVar} is only ever replaced by another LocalVar).
+     */
+    public void setOperand(int i, Value value) {
+        mOperands[i] = Objects.requireNonNull(value);
+    }
+
     public Instruction getNext(int i) {
         if (i >= numNext())
             return null;
         else
-            return next.get(i);
+            return i == 0 ? mNext0 : mNext1;
     }
 
     public int numNext() {
-        return next.size();
+        return mNumNext;
     }
   
     public void setNext(int i, Instruction inst) {
-      if (next.size() <= i)
-        next.setSize(i + 1);
-      next.set(i, inst);
+      if (mBlock != null)
+        mBlock.getCFG().invalidate();
+      if (i == 0)
+        mNext0 = inst;
+      else if (i == 1)
+        mNext1 = inst;
+      else
+        throw new Error("an instruction has at most two successors");
+      if (mNumNext <= i)
+        mNumNext = (byte) (i + 1);
     }
 }
@@ -13,6 +13,7 @@ import java.util.Iterator;
 public final class Program implements Formattable {
     private List<Function> mFunctions;
     private List<GlobalDecl> mGlobalVars;
+    private final ConstantPool mConstants = new ConstantPool();
 
     private static final int PROGRAM_FORMAT_INDENT = 2;
 
@@ -36,6 +37,10 @@ public final class Program implements Formattable {
     public Iterator<Function> getFunctions() {
         return mFunctions.iterator();
     }
+
+    ConstantPool getConstantPool() {
+        return mConstants;
+    }
   
     @Override
     public String format(java.util.function.Function<Value, String> valueFormatter) {
@@ -8,6 +8,7 @@ import crux.frontend.types.Type;
  */
 public abstract class Variable extends Value {
     protected String mName = "";
+    private int mSlot = -1;
 
     protected Variable(Type type) {
         super(type);
@@ -19,4 +20,16 @@ public abstract class Variable extends Value {
     }
 
     public String getName() { return mName; }
+
+    /**
+     * Returns the index of this variable in the frame of the function it belongs to, or -1 for a variable that does
+     * not live in a frame, such as the address of a global.
+     */
+    public int getSlot() { return mSlot; }
+
+    void setSlot(int slot) {
+        if (mSlot >= 0)
+            throw new Error(mName + " already has a slot");
+        mSlot = slot;
+    }
 }
@@ -23,9 +23,9 @@ public final class AddressAt extends Instruction {
         super(destVar, List.of(base));
     }
 
-    public AddressVar getBase() { return (AddressVar) mOperands.get(0); }
+    public AddressVar getBase() { return (AddressVar) mOperands[0]; }
 
-    public LocalVar getOffset() { return mOperands.size() > 1 ? (LocalVar)mOperands.get(1) : null; }
+    public LocalVar getOffset() { return mOperands.length > 1 ? (LocalVar)mOperands[1] : null; }
 
     public  AddressVar getDst() {
         return (AddressVar) mDestVar;
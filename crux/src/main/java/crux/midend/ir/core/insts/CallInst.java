@@ -38,11 +38,11 @@ public final class CallInst extends Instruction {
     }
 
     public AddressVar getCallee() {
-        return (AddressVar) mOperands.get(0);
+        return (AddressVar) mOperands[0];
     }
 
     public List<Value> getParams() {
-      return mOperands.subList(1, mOperands.size());
+      return getOperands().subList(1, mOperands.length);
     }
 
     public LocalVar getDst() {
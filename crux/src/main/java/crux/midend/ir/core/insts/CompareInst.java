@@ -30,11 +30,11 @@ public final class CompareInst extends Instruction {
     }
 
     public LocalVar getLeftOperand() {
-      return (LocalVar) mOperands.get(0);
+      return (LocalVar) mOperands[0];
     }
 
     public LocalVar getRightOperand() {
-      return (LocalVar) mOperands.get(1);
+      return (LocalVar) mOperands[1];
     }
 
     public LocalVar getDst() {
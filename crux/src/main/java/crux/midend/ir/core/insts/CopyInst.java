@@ -18,7 +18,7 @@ public final class CopyInst extends Instruction {
     }
 
     public Value getSrcValue() {
-        return mOperands.get(0);
+        return mOperands[0];
     }
 
     public LocalVar getDstVar() {
@@ -28,7 +28,7 @@ public final class JumpInst extends Instruction {
     }
 
     public LocalVar getPredicate() {
-        return (LocalVar)mOperands.get(0);
+        return (LocalVar)mOperands[0];
     }
 
     @Override
@@ -19,7 +19,7 @@ public final class LoadInst extends Instruction {
     }
 
     public AddressVar getSrcAddress() {
-        return (AddressVar) mOperands.get(0);
+        return (AddressVar) mOperands[0];
     }
 
     public LocalVar getDst() {
@@ -0,0 +1,60 @@
+package crux.midend.ir.core.insts;
+
+import crux.midend.ir.core.Instruction;
+import crux.midend.ir.core.LocalVar;
+import crux.midend.ir.core.Value;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Selects the incoming value of the edge along which control entered the block. Only exists while a function is in
+ * SSA form (see {@link crux.midend.opt.PassManager}), where phi instructions sit at the start of a block and the i-th
+ * operand belongs to the i-th predecessor of that block.
+ * <p>
+ * Operation (pseudo-code): {@code destVar = incoming[predecessor]}
+ */
+public final class PhiInst extends Instruction {
+    public PhiInst(LocalVar destVar, List<Value> incoming) {
+        super(destVar, incoming);
+    }
+
+    public List<Value> getIncoming() {
+        return getOperands();
+    }
+
+    /** Adds the incoming value of a new predecessor, which is inserted as the k-th one. */
+    public void addIncoming(int k, Value value) {
+        var incoming = new Value[mOperands.length + 1];
+        System.arraycopy(mOperands, 0, incoming, 0, k);
+        incoming[k] = value;
+        System.arraycopy(mOperands, k, incoming, k + 1, mOperands.length - k);
+        mOperands = incoming;
+    }
+
+    /** Drops the incoming value of the k-th predecessor, for when that edge is removed. */
+    public void removeIncoming(int k) {
+        var incoming = new Value[mOperands.length - 1];
+        System.arraycopy(mOperands, 0, incoming, 0, k);
+        System.arraycopy(mOperands, k + 1, incoming, k, incoming.length - k);
+        mOperands = incoming;
+    }
+
+    public LocalVar getDst() {
+        return (LocalVar) mDestVar;
+    }
+
+    @Override
+    public void accept(InstVisitor v) {
+        v.visit(this);
+    }
+
+    @Override
+    public String format(Function<Value, String> valueFormatter) {
+        var dest = valueFormatter.apply(mDestVar);
+        var incoming = Arrays.stream(mOperands).map(valueFormatter).collect(Collectors.joining(", "));
+        return String.format("%s = phi(%s)", dest, incoming);
+    }
+}
@@ -23,7 +23,7 @@ public final class ReturnInst extends Instruction {
     }
 
     public LocalVar getReturnValue() {
-        return (LocalVar)mOperands.get(0);
+        return (LocalVar)mOperands[0];
     }
 
     @Override
@@ -19,11 +19,11 @@ public final class StoreInst extends Instruction {
     }
 
     public LocalVar getSrcValue() {
-       return (LocalVar) mOperands.get(0);
+       return (LocalVar) mOperands[0];
     }
 
     public AddressVar getDestAddress() {
-        return (AddressVar) mOperands.get(1);
+        return (AddressVar) mOperands[1];
     }
 
     @Override
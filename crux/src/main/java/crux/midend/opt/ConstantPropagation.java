@@ -0,0 +1,233 @@
+package crux.midend.opt;
+
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck). Every variable starts out as "not yet known", only
+ * blocks reachable through edges that can actually be taken are evaluated, and a variable falls to "not constant" as
+ * soon as two different values can reach it. Afterwards
+ * <ul>
+ *     <li>{@link BinaryOperator}s, {@link CompareInst}s, {@link UnaryNotInst}s, copies and phis that always produce
+ *     the same value become a {@link CopyInst} of that {@link IntegerConstant} or {@link BooleanConstant},</li>
+ *     <li>a {@link JumpInst} whose predicate is constant is removed together with the edge it never takes,</li>
+ *     <li>blocks that can never execute are removed.</li>
+ * </ul>
+ * A division by zero is left for run time. Arguments, loaded values, call results and variables that are read
+ * without ever being written are never constant.
+ */
+public final class ConstantPropagation implements Pass {
+    /** The lattice value of a variable that can hold more than one value. */
+    private static final Object NOT_CONSTANT = new Object();
+
+    @Override
+    public String getName() {
+        return "constant-propagation";
+    }
+
+    @Override
+    public void run(FunctionBody body) {
+        var solver = new Solver(body);
+        solver.solve();
+        solver.rewrite();
+    }
+
+    private static final class Solver {
+        private final FunctionBody mBody;
+        /** Constant values are Long or Boolean objects; a variable without an entry is not yet known. */
+        private final Map<LocalVar, Object> mValues = new HashMap<>();
+        private final Map<LocalVar, List<Instruction>> mUsers = new HashMap<>();
+        private final Map<Instruction, FunctionBody.Block> mBlockOf = new HashMap<>();
+        private final Set<FunctionBody.Block> mReachable = new HashSet<>();
+        private final Map<FunctionBody.Block, Set<FunctionBody.Block>> mTakenEdges = new HashMap<>();
+        private final Deque<FunctionBody.Block[]> mEdgeWorklist = new ArrayDeque<>();
+        private final Deque<Instruction> mInstWorklist = new ArrayDeque<>();
+
+        Solver(FunctionBody body) {
+            mBody = body;
+            Set<LocalVar> defined = new HashSet<>();
+            for (FunctionBody.Block block : body.getBlocks()) {
+                mTakenEdges.put(block, new HashSet<>());
+                for (Instruction inst : block.getInstructions()) {
+                    mBlockOf.put(inst, block);
+                    if (inst.getDestVar() instanceof LocalVar)
+                        defined.add((LocalVar) inst.getDestVar());
+                    for (Value operand : inst.getOperands()) {
+                        if (operand instanceof LocalVar)
+                            mUsers.computeIfAbsent((LocalVar) operand, v -> new ArrayList<>()).add(inst);
+                    }
+                }
+            }
+            for (LocalVar var : mUsers.keySet()) {
+                if (!defined.contains(var))
+                    mValues.put(var, NOT_CONSTANT);
+            }
+        }
+
+        void solve() {
+            markReachable(mBody.getEntry());
+            while (!mEdgeWorklist.isEmpty() || !mInstWorklist.isEmpty()) {
+                while (!mEdgeWorklist.isEmpty()) {
+                    FunctionBody.Block[] edge = mEdgeWorklist.pop();
+                    if (!mTakenEdges.get(edge[0]).add(edge[1]))
+                        continue;
+                    if (mReachable.contains(edge[1])) {
+                        for (PhiInst phi : edge[1].getPhis())
+                            visit(phi);
+                    } else {
+                        markReachable(edge[1]);
+                    }
+                }
+                while (!mInstWorklist.isEmpty()) {
+                    Instruction inst = mInstWorklist.pop();
+                    if (mReachable.contains(mBlockOf.get(inst)))
+                        visit(inst);
+                }
+            }
+        }
+
+        private void markReachable(FunctionBody.Block block) {
+            mReachable.add(block);
+            for (Instruction inst : block.getInstructions())
+                visit(inst);
+            List<Instruction> insts = block.getInstructions();
+            if (insts.isEmpty() || !(insts.get(insts.size() - 1) instanceof JumpInst)) {
+                for (FunctionBody.Block succ : block.getSuccessors())
+                    mEdgeWorklist.push(new FunctionBody.Block[] {block, succ});
+            }
+        }
+
+        private void visit(Instruction inst) {
+            if (inst instanceof JumpInst) {
+                FunctionBody.Block block = mBlockOf.get(inst);
+                Object predicate = valueOf(((JumpInst) inst).getPredicate());
+                for (int i = 0; i < block.getSuccessors().size(); i++) {
+                    // A predicate that is not known yet only comes from undefined variables; assume both ways.
+                    if (!(predicate instanceof Boolean) || Boolean.valueOf(i == 1).equals(predicate))
+                        mEdgeWorklist.push(new FunctionBody.Block[] {block, block.getSuccessors().get(i)});
+                }
+                return;
+            }
+            if (!(inst.getDestVar() instanceof LocalVar))
+                return;
+            var dst = (LocalVar) inst.getDestVar();
+            Object value = inst instanceof PhiInst ? meetIncoming((PhiInst) inst) : evaluate(inst);
+            if (value != null && !value.equals(mValues.get(dst))) {
+                mValues.put(dst, value);
+                mInstWorklist.addAll(mUsers.getOrDefault(dst, List.of()));
+            }
+        }
+
+        private Object meetIncoming(PhiInst phi) {
+            FunctionBody.Block block = mBlockOf.get(phi);
+            List<FunctionBody.Block> preds = block.getPredecessors();
+            Object result = null;
+            for (int k = 0; k < preds.size(); k++) {
+                if (!mTakenEdges.get(preds.get(k)).contains(block))
+                    continue;
+                Object value = valueOf(phi.getIncoming().get(k));
+                if (value == null)
+                    continue;
+                if (result == null)
+                    result = value;
+                else if (!result.equals(value))
+                    return NOT_CONSTANT;
+            }
+            return result;
+        }
+
+        private Object evaluate(Instruction inst) {
+            if (inst instanceof CopyInst)
+                return valueOf(((CopyInst) inst).getSrcValue());
+            if (inst instanceof UnaryNotInst) {
+                Object inner = valueOf(((UnaryNotInst) inst).getInner());
+                return inner instanceof Boolean ? !(Boolean) inner : inner;
+            }
+            if (!(inst instanceof BinaryOperator) && !(inst instanceof CompareInst))
+                return NOT_CONSTANT;
+
+            Object left = valueOf(inst.getOperand(0)), right = valueOf(inst.getOperand(1));
+            if (left == NOT_CONSTANT || right == NOT_CONSTANT)
+                return NOT_CONSTANT;
+            if (left == null || right == null)
+                return null;
+            long l = (Long) left, r = (Long) right;
+            if (inst instanceof CompareInst) {
+                switch (((CompareInst) inst).getPredicate()) {
+                    case GE: return l >= r;
+                    case GT: return l > r;
+                    case LE: return l <= r;
+                    case LT: return l < r;
+                    case EQ: return l == r;
+                    case NE: return l != r;
+                }
+            }
+            switch (((BinaryOperator) inst).getOperator()) {
+                case Add: return l + r;
+                case Sub: return l - r;
+                case Mul: return l * r;
+                case Div: return r == 0 ? NOT_CONSTANT : (Object) (l / r);
+            }
+            return NOT_CONSTANT;
+        }
+
+        private Object valueOf(Value value) {
+            if (value instanceof IntegerConstant)
+                return ((IntegerConstant) value).getValue();
+            if (value instanceof BooleanConstant)
+                return ((BooleanConstant) value).getValue();
+            if (value instanceof LocalVar)
+                return mValues.get(value);
+            return NOT_CONSTANT;
+        }
+
+        void rewrite() {
+            Program program = mBody.getProgram();
+            for (FunctionBody.Block block : mBody.getBlocks()) {
+                if (!mReachable.contains(block))
+                    continue;
+
+                List<Instruction> insts = block.getInstructions();
+                List<Instruction> foldedPhis = new ArrayList<>();
+                for (ListIterator<Instruction> it = insts.listIterator(); it.hasNext();) {
+                    Instruction inst = it.next();
+                    Object value = inst.getDestVar() instanceof LocalVar ? mValues.get(inst.getDestVar()) : null;
+                    if (value == null || value == NOT_CONSTANT || !isFoldable(inst))
+                        continue;
+                    Constant constant = value instanceof Long
+                            ? IntegerConstant.get(program, (Long) value)
+                            : BooleanConstant.get(program, (Boolean) value);
+                    var copy = new CopyInst((LocalVar) inst.getDestVar(), constant);
+                    if (inst instanceof PhiInst) {
+                        it.remove();
+                        foldedPhis.add(copy);
+                    } else {
+                        it.set(copy);
+                    }
+                }
+                insts.addAll(block.getPhis().size(), foldedPhis);
+
+                Instruction last = insts.isEmpty() ? null : insts.get(insts.size() - 1);
+                if (last instanceof JumpInst) {
+                    Object predicate = valueOf(((JumpInst) last).getPredicate());
+                    if (predicate instanceof Boolean) {
+                        insts.remove(insts.size() - 1);
+                        mBody.removeEdge(block, (Boolean) predicate ? 0 : 1);
+                    }
+                }
+            }
+            for (FunctionBody.Block block : List.copyOf(mBody.getBlocks())) {
+                if (!mReachable.contains(block))
+                    mBody.removeBlock(block);
+            }
+        }
+
+        private static boolean isFoldable(Instruction inst) {
+            return inst instanceof BinaryOperator || inst instanceof CompareInst || inst instanceof UnaryNotInst
+                    || inst instanceof PhiInst
+                    || (inst instanceof CopyInst && !(((CopyInst) inst).getSrcValue() instanceof Constant));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package crux.midend.opt;
+
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.CopyInst;
+import crux.midend.ir.core.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Removes copies between variables by making every user read the source directly. The lowering copies every local
+ * assignment into its variable, so this folds those chains away. A phi whose incoming values are all the same
+ * variable (apart from the phi itself, around a loop) is a copy as well.
+ * <p>
+ * Copies of constants stay, since most instructions only take variables as operands.
+ */
+public final class CopyPropagation implements Pass {
+    @Override
+    public String getName() {
+        return "copy-propagation";
+    }
+
+    @Override
+    public void run(FunctionBody body) {
+        Map<LocalVar, LocalVar> replacements = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (FunctionBody.Block block : body.getBlocks()) {
+                for (Iterator<Instruction> it = block.getInstructions().iterator(); it.hasNext();) {
+                    Instruction inst = it.next();
+                    LocalVar source = getCopySource(inst, replacements);
+                    if (source != null) {
+                        replacements.put((LocalVar) inst.getDestVar(), source);
+                        it.remove();
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (FunctionBody.Block block : body.getBlocks()) {
+            for (Instruction inst : block.getInstructions()) {
+                for (int i = 0; i < inst.numOperands(); i++) {
+                    if (inst.getOperand(i) instanceof LocalVar && replacements.containsKey(inst.getOperand(i)))
+                        inst.setOperand(i, resolve((LocalVar) inst.getOperand(i), replacements));
+                }
+            }
+        }
+    }
+
+    private static LocalVar getCopySource(Instruction inst, Map<LocalVar, LocalVar> replacements) {
+        if (inst instanceof CopyInst) {
+            Value source = ((CopyInst) inst).getSrcValue();
+            return source instanceof LocalVar ? (LocalVar) source : null;
+        }
+        if (inst instanceof PhiInst) {
+            var phi = (PhiInst) inst;
+            LocalVar source = null;
+            for (Value incoming : phi.getIncoming()) {
+                if (!(incoming instanceof LocalVar))
+                    return null;
+                var var = resolve((LocalVar) incoming, replacements);
+                if (var == phi.getDst())
+                    continue;
+                if (source != null && source != var)
+                    return null;
+                source = var;
+            }
+            return source;
+        }
+        return null;
+    }
+
+    private static LocalVar resolve(LocalVar var, Map<LocalVar, LocalVar> replacements) {
+        while (replacements.containsKey(var))
+            var = replacements.get(var);
+        return var;
+    }
+}
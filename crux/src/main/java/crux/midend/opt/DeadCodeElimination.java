@@ -0,0 +1,102 @@
+package crux.midend.opt;
+
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.*;
+
+import java.util.*;
+
+/**
+ * Removes instructions whose results are never needed. Calls, stores, returns, jumps, divisions (which may trap) and
+ * loads (which the emulator reports when they read memory that was never written) are always live; any other
+ * instruction is live only if one of its results is read by a live instruction. In SSA form
+ * every variable has a single definition, so this is a simple mark and sweep from the live instructions.
+ * <p>
+ * Afterwards the control flow graph is tidied up: the {@link NopInst}s the lowering puts at every join are dropped,
+ * blocks that end up empty are bypassed, and a branch whose two edges lead to the same place becomes a fall-through.
+ */
+public final class DeadCodeElimination implements Pass {
+    @Override
+    public String getName() {
+        return "dead-code-elimination";
+    }
+
+    @Override
+    public void run(FunctionBody body) {
+        do {
+            sweep(body, markLive(body));
+            collapseEmptyBlocks(body);
+        } while (foldBranches(body));
+    }
+
+    private static Set<Instruction> markLive(FunctionBody body) {
+        Map<Variable, List<Instruction>> defs = new HashMap<>();
+        Set<Instruction> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Instruction> worklist = new ArrayDeque<>();
+        for (FunctionBody.Block block : body.getBlocks()) {
+            for (Instruction inst : block.getInstructions()) {
+                if (inst.getDestVar() != null)
+                    defs.computeIfAbsent(inst.getDestVar(), v -> new ArrayList<>()).add(inst);
+                if (isCritical(inst) && live.add(inst))
+                    worklist.push(inst);
+            }
+        }
+        while (!worklist.isEmpty()) {
+            for (Value operand : worklist.pop().getOperands()) {
+                for (Instruction def : defs.getOrDefault(operand, List.of())) {
+                    if (live.add(def))
+                        worklist.push(def);
+                }
+            }
+        }
+        return live;
+    }
+
+    private static boolean isCritical(Instruction inst) {
+        return inst instanceof CallInst || inst instanceof StoreInst || inst instanceof ReturnInst
+                || inst instanceof JumpInst || inst instanceof LoadInst
+                || (inst instanceof BinaryOperator && ((BinaryOperator) inst).getOperator() == BinaryOperator.Op.Div);
+    }
+
+    private static void sweep(FunctionBody body, Set<Instruction> live) {
+        for (FunctionBody.Block block : body.getBlocks())
+            block.getInstructions().removeIf(inst -> !live.contains(inst));
+    }
+
+    private static void collapseEmptyBlocks(FunctionBody body) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (FunctionBody.Block block : List.copyOf(body.getBlocks())) {
+                if (!block.getInstructions().isEmpty() || block.getSuccessors().size() != 1)
+                    continue;
+                FunctionBody.Block succ = block.getSuccessors().get(0);
+                if (succ == block || (block == body.getEntry() && succ.getPredecessors().size() != 1))
+                    continue;
+                body.bypass(block);
+                changed = true;
+            }
+        }
+    }
+
+    /** Replaces branches to the same block with a fall-through, as long as the phis there agree on both edges. */
+    private static boolean foldBranches(FunctionBody body) {
+        boolean changed = false;
+        for (FunctionBody.Block block : body.getBlocks()) {
+            List<FunctionBody.Block> succs = block.getSuccessors();
+            if (succs.size() != 2 || succs.get(0) != succs.get(1))
+                continue;
+            List<FunctionBody.Block> preds = succs.get(0).getPredecessors();
+            int first = preds.indexOf(block), second = preds.lastIndexOf(block);
+            boolean agree = true;
+            for (PhiInst phi : succs.get(0).getPhis())
+                agree &= phi.getIncoming().get(first) == phi.getIncoming().get(second);
+            if (!agree)
+                continue;
+            List<Instruction> insts = block.getInstructions();
+            insts.remove(insts.size() - 1);
+            body.removeEdge(block, 1);
+            changed = true;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,91 @@
+package crux.midend.opt;
+
+import java.util.*;
+
+/**
+ * The dominator tree and dominance frontiers of a {@link FunctionBody}, computed with the iterative algorithm of
+ * Cooper, Harvey and Kennedy over the reverse postorder of the blocks. Unreachable blocks are not part of the tree.
+ */
+final class Dominators {
+    private final List<FunctionBody.Block> mOrder;
+    private final Map<FunctionBody.Block, Integer> mIndex = new HashMap<>();
+    private final int[] mIdom;
+
+    Dominators(FunctionBody body) {
+        mOrder = body.reversePostorder();
+        for (int i = 0; i < mOrder.size(); i++)
+            mIndex.put(mOrder.get(i), i);
+
+        mIdom = new int[mOrder.size()];
+        Arrays.fill(mIdom, -1);
+        if (mOrder.isEmpty())
+            return;
+        mIdom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 1; b < mOrder.size(); b++) {
+                int newIdom = -1;
+                for (FunctionBody.Block pred : mOrder.get(b).getPredecessors()) {
+                    Integer p = mIndex.get(pred);
+                    if (p == null || mIdom[p] < 0)
+                        continue;
+                    newIdom = newIdom < 0 ? p : intersect(p, newIdom);
+                }
+                if (mIdom[b] != newIdom) {
+                    mIdom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (a > b) a = mIdom[a];
+            while (b > a) b = mIdom[b];
+        }
+        return a;
+    }
+
+    /** The reachable blocks in reverse postorder; every block comes after its dominators. */
+    List<FunctionBody.Block> getOrder() {
+        return mOrder;
+    }
+
+    /** Returns the immediate dominator, or null for the entry block. */
+    FunctionBody.Block getIdom(FunctionBody.Block block) {
+        int b = mIndex.get(block);
+        return b == 0 ? null : mOrder.get(mIdom[b]);
+    }
+
+    Map<FunctionBody.Block, List<FunctionBody.Block>> getChildren() {
+        Map<FunctionBody.Block, List<FunctionBody.Block>> children = new HashMap<>();
+        for (FunctionBody.Block block : mOrder)
+            children.put(block, new ArrayList<>());
+        for (int b = 1; b < mOrder.size(); b++)
+            children.get(mOrder.get(mIdom[b])).add(mOrder.get(b));
+        return children;
+    }
+
+    Map<FunctionBody.Block, Set<FunctionBody.Block>> getFrontiers() {
+        Map<FunctionBody.Block, Set<FunctionBody.Block>> frontiers = new HashMap<>();
+        for (FunctionBody.Block block : mOrder)
+            frontiers.put(block, new LinkedHashSet<>());
+        for (int b = 0; b < mOrder.size(); b++) {
+            FunctionBody.Block block = mOrder.get(b);
+            if (block.getPredecessors().size() < 2)
+                continue;
+            for (FunctionBody.Block pred : block.getPredecessors()) {
+                Integer runner = mIndex.get(pred);
+                if (runner == null)
+                    continue;
+                while (runner != mIdom[b]) {
+                    frontiers.get(mOrder.get(runner)).add(block);
+                    runner = mIdom[runner];
+                }
+            }
+        }
+        return frontiers;
+    }
+}
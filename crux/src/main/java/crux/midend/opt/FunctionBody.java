@@ -0,0 +1,253 @@
+package crux.midend.opt;
+
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.NopInst;
+import crux.midend.ir.core.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * An editable copy of the control flow graph of a {@link Function}, which is what the optimization passes work on.
+ * Each block holds a plain list of instructions, so passes can insert, replace and remove instructions without
+ * rewiring the instruction graph, and the successors of a block are indexed like the successors of its last
+ * instruction (for a {@link crux.midend.ir.core.insts.JumpInst} 0 is the false and 1 the true branch).
+ * <p>
+ * The edits only become visible in the function once {@link #commit()} writes the blocks back as instruction graph.
+ */
+public final class FunctionBody {
+    public static final class Block {
+        private final List<Instruction> mInstructions;
+        private final List<Block> mSuccessors = new ArrayList<>();
+        private final List<Block> mPredecessors = new ArrayList<>();
+
+        private Block(List<Instruction> instructions) {
+            mInstructions = instructions;
+        }
+
+        /** The instructions of the block, phi instructions first. The list can be edited freely. */
+        public List<Instruction> getInstructions() {
+            return mInstructions;
+        }
+
+        public List<Block> getSuccessors() {
+            return Collections.unmodifiableList(mSuccessors);
+        }
+
+        /** The predecessors, one entry per incoming edge. The i-th operand of a phi belongs to the i-th entry. */
+        public List<Block> getPredecessors() {
+            return Collections.unmodifiableList(mPredecessors);
+        }
+
+        public List<PhiInst> getPhis() {
+            List<PhiInst> phis = new ArrayList<>();
+            for (Instruction inst : mInstructions) {
+                if (!(inst instanceof PhiInst)) break;
+                phis.add((PhiInst) inst);
+            }
+            return phis;
+        }
+    }
+
+    private final Program mProgram;
+    private final Function mFunction;
+    private final List<Block> mBlocks = new ArrayList<>();
+
+    public FunctionBody(Program program, Function function) {
+        mProgram = program;
+        mFunction = function;
+        var cfg = function.getCFG();
+        for (BasicBlock bb : cfg.getBlocks())
+            mBlocks.add(new Block(new ArrayList<>(bb.getInstructions())));
+        for (BasicBlock bb : cfg.getBlocks()) {
+            Block block = mBlocks.get(bb.getIndex());
+            for (int i = 0; i < bb.numSuccessors(); i++) {
+                if (bb.getSuccessor(i) != null)
+                    block.mSuccessors.add(mBlocks.get(bb.getSuccessor(i).getIndex()));
+            }
+            for (BasicBlock pred : bb.getPredecessors())
+                block.mPredecessors.add(mBlocks.get(pred.getIndex()));
+        }
+        // Keep the entry free of incoming edges, so that the root of the dominator tree never needs phi instructions.
+        if (!mBlocks.isEmpty() && !getEntry().mPredecessors.isEmpty()) {
+            Block entry = new Block(new ArrayList<>());
+            entry.mSuccessors.add(getEntry());
+            getEntry().mPredecessors.add(entry);
+            mBlocks.add(0, entry);
+        }
+    }
+
+    public Program getProgram() {
+        return mProgram;
+    }
+
+    public Function getFunction() {
+        return mFunction;
+    }
+
+    /**
+     * All blocks, starting with the entry block, which never has predecessors. Empty if the function has no
+     * instructions.
+     */
+    public List<Block> getBlocks() {
+        return Collections.unmodifiableList(mBlocks);
+    }
+
+    public Block getEntry() {
+        return mBlocks.isEmpty() ? null : mBlocks.get(0);
+    }
+
+    /** Returns the blocks reachable from the entry in reverse postorder. */
+    public List<Block> reversePostorder() {
+        List<Block> postorder = new ArrayList<>();
+        if (mBlocks.isEmpty())
+            return postorder;
+        Set<Block> visited = new HashSet<>();
+        Deque<Block> blocks = new ArrayDeque<>();
+        Deque<Integer> nextSucc = new ArrayDeque<>();
+        visited.add(getEntry());
+        blocks.push(getEntry());
+        nextSucc.push(0);
+        while (!blocks.isEmpty()) {
+            Block block = blocks.peek();
+            int i = nextSucc.pop();
+            if (i < block.mSuccessors.size()) {
+                nextSucc.push(i + 1);
+                Block succ = block.mSuccessors.get(i);
+                if (visited.add(succ)) {
+                    blocks.push(succ);
+                    nextSucc.push(0);
+                }
+            } else {
+                postorder.add(blocks.pop());
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    /**
+     * Puts a new, empty block on the i-th outgoing edge of the given block. The new block takes over the position
+     * of the edge in the predecessors of the old target, so phi operands stay with their edge.
+     */
+    public Block splitEdge(Block pred, int i) {
+        Block succ = pred.mSuccessors.get(i);
+        Block middle = new Block(new ArrayList<>());
+        mBlocks.add(middle);
+        succ.mPredecessors.set(predecessorIndex(pred, i), middle);
+        pred.mSuccessors.set(i, middle);
+        middle.mPredecessors.add(pred);
+        middle.mSuccessors.add(succ);
+        return middle;
+    }
+
+    /**
+     * Removes the i-th outgoing edge of the given block, together with the operands the phi instructions of its
+     * target have for that edge. The remaining successors move up, so removing an edge of a branch leaves the
+     * block with a single successor and its {@link crux.midend.ir.core.insts.JumpInst} has to go as well.
+     */
+    public void removeEdge(Block pred, int i) {
+        Block succ = pred.mSuccessors.get(i);
+        int k = predecessorIndex(pred, i);
+        pred.mSuccessors.remove(i);
+        succ.mPredecessors.remove(k);
+        for (PhiInst phi : succ.getPhis())
+            phi.removeIncoming(k);
+    }
+
+    /** Removes a block together with all edges from and to it. */
+    public void removeBlock(Block block) {
+        for (int i = block.mSuccessors.size() - 1; i >= 0; i--)
+            removeEdge(block, i);
+        while (!block.mPredecessors.isEmpty()) {
+            Block pred = block.mPredecessors.get(0);
+            removeEdge(pred, pred.mSuccessors.indexOf(block));
+        }
+        mBlocks.remove(block);
+    }
+
+    /**
+     * Removes an empty block with a single successor by sending its incoming edges straight to that successor. The
+     * phi instructions of the successor repeat the operand of the removed edge for every redirected edge. The entry
+     * block can only be bypassed if it is the only predecessor of its successor, which then becomes the entry.
+     */
+    public void bypass(Block block) {
+        Block succ = block.mSuccessors.get(0);
+        List<PhiInst> phis = succ.getPhis();
+        List<Value> incoming = new ArrayList<>();
+        int k = predecessorIndex(block, 0);
+        for (PhiInst phi : phis)
+            incoming.add(phi.getIncoming().get(k));
+        removeEdge(block, 0);
+        for (Block pred : block.mPredecessors) {
+            int i = pred.mSuccessors.indexOf(block);
+            pred.mSuccessors.set(i, succ);
+            // The predecessor may already reach the target on another edge; keep the entries in the order of the edges.
+            int occurrence = 0;
+            for (int j = 0; j < i; j++) {
+                if (pred.mSuccessors.get(j) == succ)
+                    occurrence++;
+            }
+            int at = 0;
+            while (at < succ.mPredecessors.size() && (succ.mPredecessors.get(at) != pred || occurrence-- > 0))
+                at++;
+            succ.mPredecessors.add(at, pred);
+            for (int n = 0; n < phis.size(); n++)
+                phis.get(n).addIncoming(at, incoming.get(n));
+        }
+        block.mPredecessors.clear();
+        if (block == getEntry()) {
+            mBlocks.remove(succ);
+            mBlocks.set(0, succ);
+        } else {
+            mBlocks.remove(block);
+        }
+    }
+
+    /** Returns the number of instructions in all blocks. */
+    public int size() {
+        int size = 0;
+        for (Block block : mBlocks)
+            size += block.mInstructions.size();
+        return size;
+    }
+
+    /** Returns the position of the i-th outgoing edge of a block in the predecessors of its target. */
+    private static int predecessorIndex(Block pred, int i) {
+        Block succ = pred.mSuccessors.get(i);
+        // Several edges can connect the same two blocks; the n-th of them maps to the n-th predecessor entry.
+        int occurrence = 0;
+        for (int j = 0; j < i; j++) {
+            if (pred.mSuccessors.get(j) == succ)
+                occurrence++;
+        }
+        for (int k = 0; k < succ.mPredecessors.size(); k++) {
+            if (succ.mPredecessors.get(k) == pred && occurrence-- == 0)
+                return k;
+        }
+        throw new Error("edge is missing from the predecessors of its target");
+    }
+
+    /**
+     * Writes the blocks back as the instruction graph of the function. Blocks that ended up empty get a
+     * {@link NopInst} so that their edges have an instruction to point to.
+     */
+    public void commit() {
+        if (mBlocks.isEmpty())
+            return;
+        for (Block block : mBlocks) {
+            if (block.mInstructions.isEmpty())
+                block.mInstructions.add(new NopInst());
+        }
+        for (Block block : mBlocks) {
+            List<Instruction> insts = block.mInstructions;
+            for (int i = 0; i + 1 < insts.size(); i++)
+                insts.get(i).setNext(0, insts.get(i + 1));
+            Instruction last = insts.get(insts.size() - 1);
+            for (int i = 0; i < block.mSuccessors.size(); i++)
+                last.setNext(i, block.mSuccessors.get(i).mInstructions.get(0));
+            for (int i = block.mSuccessors.size(); i < last.numNext(); i++)
+                last.setNext(i, null);
+        }
+        mFunction.setStart(getEntry().mInstructions.get(0));
+    }
+}
@@ -0,0 +1,80 @@
+package crux.midend.opt;
+
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.CopyInst;
+import crux.midend.ir.core.insts.PhiInst;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a {@link FunctionBody} out of SSA form by replacing the phi instructions of a block with copies at the end
+ * of its predecessors. Edges leaving a branch are split first, so the copies only run on their own edge (otherwise a
+ * value could get lost on the other edge), and the copies of one edge are ordered like a parallel assignment, going
+ * through a temporary where they form a cycle.
+ */
+final class OutOfSSA {
+    private OutOfSSA() {
+    }
+
+    static void run(FunctionBody body) {
+        for (FunctionBody.Block block : List.copyOf(body.getBlocks())) {
+            List<FunctionBody.Block> succs = block.getSuccessors();
+            if (succs.size() < 2)
+                continue;
+            for (int i = 0; i < succs.size(); i++) {
+                if (!succs.get(i).getPhis().isEmpty())
+                    body.splitEdge(block, i);
+            }
+        }
+
+        for (FunctionBody.Block block : body.getBlocks()) {
+            List<PhiInst> phis = block.getPhis();
+            if (phis.isEmpty())
+                continue;
+            List<FunctionBody.Block> preds = block.getPredecessors();
+            for (int k = 0; k < preds.size(); k++) {
+                List<LocalVar> dsts = new ArrayList<>();
+                List<Value> srcs = new ArrayList<>();
+                for (PhiInst phi : phis) {
+                    dsts.add(phi.getDst());
+                    srcs.add(phi.getIncoming().get(k));
+                }
+                preds.get(k).getInstructions().addAll(sequentialize(body.getFunction(), dsts, srcs));
+            }
+            block.getInstructions().subList(0, phis.size()).clear();
+        }
+    }
+
+    private static List<Instruction> sequentialize(Function f, List<LocalVar> dsts, List<Value> srcs) {
+        List<Instruction> copies = new ArrayList<>();
+        dsts = new ArrayList<>(dsts);
+        srcs = new ArrayList<>(srcs);
+        for (int i = dsts.size() - 1; i >= 0; i--) {
+            if (dsts.get(i) == srcs.get(i)) {
+                dsts.remove(i);
+                srcs.remove(i);
+            }
+        }
+        while (!dsts.isEmpty()) {
+            int ready = -1;
+            for (int i = 0; i < dsts.size() && ready < 0; i++) {
+                if (!srcs.contains(dsts.get(i)))
+                    ready = i;
+            }
+            if (ready >= 0) {
+                copies.add(new CopyInst(dsts.remove(ready), srcs.remove(ready)));
+                continue;
+            }
+            // Only cycles are left; save one destination so that its copy no longer blocks the others.
+            LocalVar blocked = dsts.get(0);
+            LocalVar temp = f.getTempVar(blocked.getType());
+            copies.add(new CopyInst(temp, blocked));
+            for (int i = 0; i < srcs.size(); i++) {
+                if (srcs.get(i) == blocked)
+                    srcs.set(i, temp);
+            }
+        }
+        return copies;
+    }
+}
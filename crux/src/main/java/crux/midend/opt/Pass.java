@@ -0,0 +1,11 @@
+package crux.midend.opt;
+
+/**
+ * An optimization that rewrites a single function. Passes are run by the {@link PassManager}, which hands them the
+ * function in SSA form: every local variable has exactly one definition, which dominates all of its uses.
+ */
+public interface Pass {
+    String getName();
+
+    void run(FunctionBody body);
+}
@@ -0,0 +1,76 @@
+package crux.midend.opt;
+
+import crux.midend.ir.core.Function;
+import crux.midend.ir.core.Program;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs a pipeline of {@link Pass}es over every function of a program. Each function is converted to SSA form, the
+ * passes run in the order they were added, and the function is converted back out of SSA form, so that the emulator
+ * and the code generator never see a {@link crux.midend.ir.core.insts.PhiInst}. An empty pipeline leaves the program
+ * untouched.
+ * <p>
+ * With a report stream, the manager prints for every function how many instructions each pass removed, and how
+ * many instructions the function had before and after the pipeline.
+ */
+public final class PassManager {
+    private final List<Pass> mPasses = new ArrayList<>();
+    private PrintStream mReport = null;
+
+    /**
+     * Returns the default pipeline for an optimization level: nothing at 0, the cheap cleanups at 1 and everything
+     * at 2.
+     */
+    public static PassManager forLevel(int level) {
+        var passManager = new PassManager();
+        if (level >= 2) {
+            passManager.addPass(new ConstantPropagation());
+        }
+        if (level >= 1) {
+            passManager.addPass(new CopyPropagation());
+            passManager.addPass(new DeadCodeElimination());
+        }
+        return passManager;
+    }
+
+    public void addPass(Pass pass) {
+        mPasses.add(pass);
+    }
+
+    public void enableReport(PrintStream report) {
+        mReport = report;
+    }
+
+    public List<Pass> getPasses() {
+        return List.copyOf(mPasses);
+    }
+
+    public void run(Program program) {
+        for (Iterator<Function> it = program.getFunctions(); it.hasNext();)
+            run(program, it.next());
+    }
+
+    public void run(Program program, Function function) {
+        if (mPasses.isEmpty())
+            return;
+        var body = new FunctionBody(program, function);
+        if (body.getEntry() == null)
+            return;
+        int sizeBefore = body.size();
+        SSABuilder.run(body);
+        for (Pass pass : mPasses) {
+            int size = body.size();
+            pass.run(body);
+            if (mReport != null)
+                mReport.printf("%s: %s removed %d instructions%n", function.getName(), pass.getName(), size - body.size());
+        }
+        OutOfSSA.run(body);
+        body.commit();
+        if (mReport != null)
+            mReport.printf("%s: %d -> %d instructions%n", function.getName(), sizeBefore, body.size());
+    }
+}
@@ -0,0 +1,153 @@
+package crux.midend.opt;
+
+import crux.midend.ir.core.*;
+import crux.midend.ir.core.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Converts a {@link FunctionBody} to SSA form (Cytron et al.). Phi instructions are placed on the iterated dominance
+ * frontier of the definitions of every variable that is live across a block boundary ("semi-pruned" SSA), then a walk
+ * over the dominator tree gives every definition a fresh variable and rewrites the uses to the reaching one.
+ * <p>
+ * The first definition of a variable keeps the variable itself, so that most temporaries are not renamed at all;
+ * arguments count as defined at the entry. A use that no definition reaches keeps the original variable as well.
+ */
+final class SSABuilder {
+    private final FunctionBody mBody;
+    private final Dominators mDominators;
+    private final List<LocalVar> mArguments;
+    private final Map<PhiInst, LocalVar> mPhiVars = new HashMap<>();
+    private final Map<LocalVar, Deque<LocalVar>> mVersions = new HashMap<>();
+    private final Map<LocalVar, Integer> mVersionCounters = new HashMap<>();
+
+    private SSABuilder(FunctionBody body) {
+        mBody = body;
+        mDominators = new Dominators(body);
+        mArguments = body.getFunction().getArguments();
+    }
+
+    static void run(FunctionBody body) {
+        var builder = new SSABuilder(body);
+        builder.placePhis();
+        builder.rename();
+    }
+
+    private void placePhis() {
+        Map<LocalVar, Set<FunctionBody.Block>> defBlocks = new LinkedHashMap<>();
+        Set<LocalVar> crossBlock = new HashSet<>();
+        for (LocalVar arg : mArguments)
+            defBlocks.computeIfAbsent(arg, v -> new LinkedHashSet<>()).add(mBody.getEntry());
+        for (FunctionBody.Block block : mDominators.getOrder()) {
+            Set<LocalVar> defined = new HashSet<>();
+            for (Instruction inst : block.getInstructions()) {
+                for (Value operand : inst.getOperands()) {
+                    if (operand instanceof LocalVar && !defined.contains(operand))
+                        crossBlock.add((LocalVar) operand);
+                }
+                if (inst.getDestVar() instanceof LocalVar) {
+                    var dst = (LocalVar) inst.getDestVar();
+                    defined.add(dst);
+                    defBlocks.computeIfAbsent(dst, v -> new LinkedHashSet<>()).add(block);
+                }
+            }
+        }
+
+        var frontiers = mDominators.getFrontiers();
+        for (var entry : defBlocks.entrySet()) {
+            LocalVar var = entry.getKey();
+            mVersions.put(var, new ArrayDeque<>());
+            if (!crossBlock.contains(var))
+                continue;
+            Deque<FunctionBody.Block> worklist = new ArrayDeque<>(entry.getValue());
+            Set<FunctionBody.Block> hasPhi = new HashSet<>();
+            while (!worklist.isEmpty()) {
+                for (FunctionBody.Block frontier : frontiers.get(worklist.pop())) {
+                    if (!hasPhi.add(frontier))
+                        continue;
+                    int numPreds = frontier.getPredecessors().size();
+                    var phi = new PhiInst(var, Collections.nCopies(numPreds, var));
+                    frontier.getInstructions().add(0, phi);
+                    mPhiVars.put(phi, var);
+                    worklist.push(frontier);
+                }
+            }
+        }
+        for (LocalVar arg : mArguments)
+            mVersions.get(arg).push(arg);
+    }
+
+    private static final class Frame {
+        final FunctionBody.Block block;
+        final List<LocalVar> defined = new ArrayList<>();
+        boolean visited = false;
+
+        Frame(FunctionBody.Block block) {
+            this.block = block;
+        }
+    }
+
+    private void rename() {
+        var children = mDominators.getChildren();
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(mBody.getEntry()));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.visited) {
+                for (LocalVar var : frame.defined)
+                    mVersions.get(var).pop();
+                stack.pop();
+                continue;
+            }
+            frame.visited = true;
+            renameBlock(frame);
+            for (FunctionBody.Block child : children.get(frame.block))
+                stack.push(new Frame(child));
+        }
+    }
+
+    private void renameBlock(Frame frame) {
+        FunctionBody.Block block = frame.block;
+        for (Instruction inst : block.getInstructions()) {
+            if (!(inst instanceof PhiInst)) {
+                for (int i = 0; i < inst.numOperands(); i++) {
+                    if (inst.getOperand(i) instanceof LocalVar)
+                        inst.setOperand(i, current((LocalVar) inst.getOperand(i)));
+                }
+            }
+            if (inst.getDestVar() instanceof LocalVar) {
+                var var = (LocalVar) inst.getDestVar();
+                var version = newVersion(var);
+                inst.setDestVar(version);
+                mVersions.get(var).push(version);
+                frame.defined.add(var);
+            }
+        }
+
+        Set<FunctionBody.Block> seen = new HashSet<>();
+        for (FunctionBody.Block succ : block.getSuccessors()) {
+            if (!seen.add(succ))
+                continue;
+            List<FunctionBody.Block> preds = succ.getPredecessors();
+            for (PhiInst phi : succ.getPhis()) {
+                for (int k = 0; k < preds.size(); k++) {
+                    if (preds.get(k) == block)
+                        phi.setOperand(k, current(mPhiVars.get(phi)));
+                }
+            }
+        }
+    }
+
+    private LocalVar current(LocalVar var) {
+        Deque<LocalVar> versions = mVersions.get(var);
+        return versions == null || versions.isEmpty() ? var : versions.peek();
+    }
+
+    private LocalVar newVersion(LocalVar var) {
+        int n = mVersionCounters.merge(var, 1, Integer::sum);
+        if (n == 1 && !mArguments.contains(var))
+            return var;
+        var name = var.getName().startsWith("$") ? var.getName().substring(1) : var.getName();
+        return mBody.getFunction().getLocalVar(var.getType(), name + "." + n);
+    }
+}
@@ -0,0 +1,74 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+final class CompilationCacheTests {
+    /** About 1 KB on disk, so that a 2500 byte cache holds two of them. */
+    private static final CompilationCache.Entry ENTRY = new CompilationCache.Entry(State.Finished, "x".repeat(1000), "", null);
+
+    @TempDir
+    File directory;
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        var cache = new CompilationCache(directory, 2500);
+        cache.store("first", ENTRY);
+        cache.store("second", ENTRY);
+        usedAt("first", 1000);
+        usedAt("second", 2000);
+        cache.store("third", ENTRY);
+
+        Assertions.assertNull(cache.load("first"));
+        Assertions.assertNotNull(cache.load("second"));
+        Assertions.assertNotNull(cache.load("third"));
+        Assertions.assertEquals("file cache: 2 hits, 1 misses, 1 evicted", cache.getStatistics());
+    }
+
+    /** A cache opened on a directory that is already full evicts on the first store. */
+    @Test
+    void countsEntriesOfEarlierRuns() {
+        var earlier = new CompilationCache(directory, 2500);
+        earlier.store("first", ENTRY);
+        earlier.store("second", ENTRY);
+        usedAt("first", 2000);
+        usedAt("second", 1000);
+
+        var cache = new CompilationCache(directory, 2500);
+        cache.store("third", ENTRY);
+        Assertions.assertNotNull(cache.load("first"));
+        Assertions.assertNull(cache.load("second"));
+        Assertions.assertEquals("file cache: 1 hits, 1 misses, 1 evicted", cache.getStatistics());
+    }
+
+    /** Type checks every program twice through a file cache, where the second run only replays the first. */
+    @TestFactory
+    Stream<DynamicTest> typeCheckFileCache() throws IOException {
+        return TestPrograms.of("type-check").stream().map(test -> dynamicTest(test.in, () -> {
+            var expectedOutput = test.expectedOutput();
+            for (int run = 0; run < 2; run++) {
+                var outStream = new ByteArrayOutputStream();
+                var outPrintStream = new PrintStream(outStream);
+                var driver = new Driver(outPrintStream, outPrintStream);
+                driver.setInputStream(new ByteArrayInputStream(test.source().getBytes(StandardCharsets.UTF_8)));
+                driver.enableTypeCheck();
+                driver.setFileCache(directory.getPath(), 1 << 20);
+                driver.run();
+                Assertions.assertEquals(expectedOutput.trim(), outStream.toString().trim());
+            }
+        }));
+    }
+
+    private void usedAt(String key, long time) {
+        Assertions.assertTrue(new File(directory, key + ".entry").setLastModified(time));
+    }
+}
@@ -0,0 +1,71 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+final class CompileServerTests {
+    private static final String PRINT_ONE = "func main() : void {\n  ::printInt(1);\n}\n";
+    private static final String LOOP_FOREVER = "var i : int;\nfunc main() : void {\n  let i = 0;\n  while (i < 1) {\n"
+            + "    let i = i - 1;\n  }\n}\n";
+    /** Would call itself some 10^19 times, without a single loop. */
+    private static final String RECURSE_FOREVER = "func f(n : int) : int {\n  if (n < 2) {\n    return n;\n  }\n"
+            + "  return ::f(n - 1) + ::f(n - 2);\n}\nfunc main() : void {\n  ::printInt(::f(90));\n}\n";
+
+    private final CompileServer server = new CompileServer();
+
+    /** Emulates all the IR tests through one server, which keeps its parser from one request to the next. */
+    @TestFactory
+    Stream<DynamicTest> emulateIR() throws IOException {
+        return TestPrograms.of("ir").stream().map(test -> dynamicTest(test.in, () -> {
+            var request = new CompileServer.Request(CompileServer.Command.EMULATE, test.source());
+            request.setEmulatorInput(test.input());
+            request.setOptimizationLevel(2);
+            var response = server.handle(request);
+            Assertions.assertTrue(response.isOk(), String.join("\n", response.getDiagnostics()));
+            Assertions.assertEquals(test.expectedOutput().trim(), response.getOutput().trim());
+        }));
+    }
+
+    /** A server reports an output file it cannot write as a diagnostic, and goes on with the next request. */
+    @Test
+    void unwritableOutput() {
+        var request = new CompileServer.Request(CompileServer.Command.COMPILE, PRINT_ONE);
+        request.setOutputFile(new File("no-such-directory", "a.s").getPath());
+        var response = server.handle(request);
+        Assertions.assertFalse(response.isOk());
+        Assertions.assertTrue(response.getDiagnostics().stream().anyMatch(d -> d.contains("no-such-directory")),
+                String.join("\n", response.getDiagnostics()));
+        assertServes();
+    }
+
+    /** A program that does not stop is stopped at the timeout, in the emulator and in compiled code alike. */
+    @TestFactory
+    Stream<DynamicTest> timeout() {
+        return Stream.of(LOOP_FOREVER, RECURSE_FOREVER).flatMap(source -> Stream.of(false, true).map(jit ->
+                dynamicTest((source == LOOP_FOREVER ? "loop" : "recursion") + (jit ? " jit" : ""), () -> {
+                    var request = new CompileServer.Request(CompileServer.Command.EMULATE, source);
+                    if (jit)
+                        request.enableJit();
+                    request.setTimeout(200);
+                    var response = server.handle(request);
+                    Assertions.assertFalse(response.isOk());
+                    Assertions.assertEquals(List.of("error: timed out after 200 ms"), response.getDiagnostics());
+                    assertServes();
+                })));
+    }
+
+    private void assertServes() {
+        var response = server.handle(new CompileServer.Request(CompileServer.Command.EMULATE, PRINT_ONE));
+        Assertions.assertTrue(response.isOk(), String.join("\n", response.getDiagnostics()));
+        Assertions.assertEquals("1", response.getOutput().trim());
+    }
+}
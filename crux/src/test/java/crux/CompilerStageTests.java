@@ -6,6 +6,7 @@ import org.junit.jupiter.api.TestFactory;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -126,6 +127,20 @@ final class CompilerStageTests {
 
     @TestFactory
     Stream<DynamicTest> codegen() throws IOException {
+        return codegen(false, 0);
+    }
+
+    @TestFactory
+    Stream<DynamicTest> codegenRegAlloc() throws IOException {
+        return codegen(true, 0);
+    }
+
+    @TestFactory
+    Stream<DynamicTest> codegenOptimized() throws IOException {
+        return codegen(true, 2);
+    }
+
+    private Stream<DynamicTest> codegen(boolean regAlloc, int optLevel) throws IOException {
         if(skipStage("stage5")){
             return Stream.empty();
         }
@@ -140,6 +155,8 @@ final class CompilerStageTests {
             var driver = new Driver();
             
             driver.setInputStream(in);
+            if (regAlloc) driver.enableRegAlloc();
+            driver.setOptimizationLevel(optLevel);
             driver.run();
             Process build = runtime.exec("gcc a.s src/runtime/runtime.c -o autotest.bin");
             try {
@@ -168,6 +185,36 @@ final class CompilerStageTests {
         }));
     }
 
+    /** Compiles every program without a cache, then twice with one, which must not change the assembly code. */
+    @TestFactory
+    Stream<DynamicTest> codegenCached() throws IOException {
+        if(skipStage("stage5")){
+            return Stream.empty();
+        }
+        var cache = Files.createTempDirectory("crux-cache");
+        var tests = getTests("codegen");
+        return tests.stream().map(test -> dynamicTest(test.in, () -> {
+            var expected = compileToString(test, null);
+            Assertions.assertEquals(expected, compileToString(test, cache.toString()), "first run with the cache");
+            Assertions.assertEquals(expected, compileToString(test, cache.toString()), "second run with the cache");
+        }));
+    }
+
+    private String compileToString(InOut test, String cacheDirectory) throws IOException {
+        var output = Files.createTempFile("crux", ".s");
+        var driver = new Driver();
+        driver.setInputStream(getClass().getClassLoader().getResourceAsStream(test.in));
+        driver.setOutputFile(output.toString());
+        driver.enableRegAlloc();
+        driver.setOptimizationLevel(2);
+        if (cacheDirectory != null)
+            driver.setCacheDirectory(cacheDirectory, 1 << 20);
+        driver.run();
+        var code = Files.readString(output);
+        Files.delete(output);
+        return code;
+    }
+
     private List<InOut> getTests(String stageName) throws IOException {
         var loader = getClass().getClassLoader();
         var folder = String.format("crux/stages/%s", stageName);
@@ -0,0 +1,111 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+final class EmulatorTests {
+    /** Runs the IR tests on the decoded functions, whose globals live in one flat array. */
+    @TestFactory
+    Stream<DynamicTest> emulateIR() throws IOException {
+        return TestPrograms.of("ir").stream().map(test -> dynamicTest(test.in, () -> {
+            var actualOutput = TestPrograms.emulate(test.source(), test.input(), driver -> { });
+            Assertions.assertEquals(test.expectedOutput().trim(), actualOutput.trim());
+        }));
+    }
+
+    /** The optimizations do not change what the IR tests print. */
+    @TestFactory
+    Stream<DynamicTest> emulateIROptimized() throws IOException {
+        return TestPrograms.of("ir").stream().map(test -> dynamicTest(test.in, () -> {
+            var actualOutput = TestPrograms.emulate(test.source(), test.input(), driver -> driver.setOptimizationLevel(2));
+            Assertions.assertEquals(test.expectedOutput().trim(), actualOutput.trim());
+        }));
+    }
+
+    /** Emulates all the IR tests at the same time, each on its own driver. */
+    @Test
+    void emulateIRParallel() throws Exception {
+        var tests = TestPrograms.of("ir");
+        var pool = Executors.newFixedThreadPool(4);
+        try {
+            var outputs = new ArrayList<Future<String>>();
+            for (var test : tests)
+                outputs.add(pool.submit(() -> TestPrograms.emulate(test.source(), test.input(),
+                        driver -> driver.setOptimizationLevel(2))));
+            for (int i = 0; i < tests.size(); i++)
+                Assertions.assertEquals(tests.get(i).expectedOutput().trim(), outputs.get(i).get().trim(), tests.get(i).in);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Generated programs print the same without and with optimizations, in the emulator and the JIT. */
+    @TestFactory
+    Stream<DynamicTest> emulateGenerated() {
+        return IntStream.range(0, 16).mapToObj(seed -> dynamicTest("seed " + seed, () -> {
+            var source = new ProgramGenerator().setFunctions(12).setSeed(seed).generate();
+            var expectedOutput = TestPrograms.emulate(source, driver -> { });
+            Assertions.assertFalse(expectedOutput.isBlank());
+            Assertions.assertEquals(expectedOutput, TestPrograms.emulate(source, driver -> driver.setOptimizationLevel(2)));
+            Assertions.assertEquals(expectedOutput, TestPrograms.emulate(source, driver -> {
+                driver.setOptimizationLevel(2);
+                driver.enableJit();
+            }));
+        }));
+    }
+
+    /** Optimizations keep a load whose value is never used, as the emulator reports reading unwritten memory. */
+    @Test
+    void emulateUninitializedRead() {
+        var source = "array a : int[4];\nfunc main() : void {\n  var x : int;\n  let x = a[2];\n  ::printInt(1);\n}\n";
+        var expectedOutput = TestPrograms.emulate(source, driver -> { });
+        Assertions.assertTrue(expectedOutput.contains("uninitialized"), expectedOutput);
+        for (int optLevel = 1; optLevel <= 2; optLevel++) {
+            int level = optLevel;
+            Assertions.assertEquals(expectedOutput, TestPrograms.emulate(source, driver -> driver.setOptimizationLevel(level)),
+                    "-O" + level);
+        }
+    }
+
+    /** The debug trace shows booleans as true and false, as the emulator did before frames held longs. */
+    @Test
+    void debugTraceShowsBooleans() {
+        var source = "func isPositive(x : int) : bool {\n  return x > 0;\n}\n"
+                + "func show(b : bool) : void {\n  ::printBool(b);\n}\n"
+                + "func main() : void {\n  var b : bool;\n  let b = ::isPositive(3);\n  ::show(b);\n}\n";
+        var outStream = new ByteArrayOutputStream();
+        var outPrintStream = new PrintStream(outStream);
+        var driver = new Driver(outPrintStream, outPrintStream);
+        driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+        driver.enableDebugEmulator();
+        driver.run();
+        Assertions.assertEquals(String.join("\n",
+                "CopyInst: $t0=3",
+                "Calling isPositive with [3]",
+                "CopyInst: $t0=3",
+                "CopyInst: $t2=0",
+                "CompareInst: $t1=3GT0",
+                "ReturnInst: true",
+                "CopyInst: $b=true",
+                "CopyInst: $t2=true",
+                "Calling show with [true]",
+                "CopyInst: $t0=true",
+                "Calling printBool with [true]",
+                "true"), outStream.toString().replace(System.lineSeparator(), "\n"));
+    }
+}
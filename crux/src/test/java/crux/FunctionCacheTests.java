@@ -0,0 +1,30 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+
+final class FunctionCacheTests {
+    private static final String CODE = "nop\n".repeat(250);
+
+    @TempDir
+    File directory;
+
+    /** Functions of an earlier build are never loaded again, so they are the first to go. */
+    @Test
+    void evictsFunctionsNotUsedAnyMore() {
+        var earlier = new FunctionCache(directory, 2500);
+        earlier.store("stale", CODE);
+        Assertions.assertTrue(new File(directory, "stale.s").setLastModified(1000));
+
+        var cache = new FunctionCache(directory, 2500);
+        cache.store("first", CODE);
+        cache.store("second", CODE);
+
+        Assertions.assertNull(cache.load("stale"));
+        Assertions.assertEquals(CODE, cache.load("first"));
+        Assertions.assertEquals(CODE, cache.load("second"));
+    }
+}
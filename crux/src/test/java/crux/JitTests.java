@@ -0,0 +1,46 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+final class JitTests {
+    @TestFactory
+    Stream<DynamicTest> emulateIRJit() throws IOException {
+        return TestPrograms.of("ir").stream().map(test -> dynamicTest(test.in, () -> {
+            var actualOutput = TestPrograms.emulate(test.source(), test.input(), Driver::enableJit);
+            Assertions.assertEquals(test.expectedOutput().trim(), actualOutput.trim());
+        }));
+    }
+
+    /** Emulates with every function switching to compiled code on its first call or loop iteration. */
+    @TestFactory
+    Stream<DynamicTest> emulateIRTiered() throws IOException {
+        return TestPrograms.of("ir").stream().map(test -> dynamicTest(test.in, () -> {
+            var actualOutput = TestPrograms.emulate(test.source(), test.input(), JitTests::tierUpAtOnce);
+            Assertions.assertEquals(test.expectedOutput().trim(), actualOutput.trim());
+        }));
+    }
+
+    /** A function too large for a JVM method stays in the emulator while the other functions are compiled. */
+    @Test
+    void emulateOversizedFunction() {
+        var source = new ProgramGenerator().setFunctions(2).setStatements(200).generate();
+        var expectedOutput = TestPrograms.emulate(source, driver -> { });
+        Assertions.assertFalse(expectedOutput.isBlank());
+        Assertions.assertEquals(expectedOutput, TestPrograms.emulate(source, JitTests::tierUpAtOnce), "tiered");
+        Assertions.assertEquals(expectedOutput, TestPrograms.emulate(source, Driver::enableJit), "jit");
+    }
+
+    /** Tiers up every function on its first call or loop iteration. */
+    private static void tierUpAtOnce(Driver driver) {
+        driver.enableTiering();
+        driver.setTierUpThresholds(1, 1);
+    }
+}
@@ -0,0 +1,52 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+final class StageTimingTests {
+    /** Every stage that runs reports its timing to the listeners, in order. */
+    @TestFactory
+    Stream<DynamicTest> emulateIRStageTimings() throws IOException {
+        return TestPrograms.of("ir").stream().map(test -> dynamicTest(test.in, () -> {
+            var driver = new Driver(new PrintStream(new ByteArrayOutputStream()), System.err);
+            var stages = new ArrayList<String>();
+            driver.addStageListener(timing -> {
+                Assertions.assertTrue(timing.getWallNanos() >= 0);
+                stages.add(timing.getStage());
+            });
+            driver.setInputStream(new ByteArrayInputStream(test.source().getBytes(StandardCharsets.UTF_8)));
+            driver.setEmulatorInput(new ByteArrayInputStream(test.input().getBytes(StandardCharsets.UTF_8)));
+            driver.enableEmulator();
+            driver.run();
+            Assertions.assertEquals(List.of("parse", "makeAST", "typeCheck", "emitIR", "emulator"), stages);
+        }));
+    }
+
+    /** Compiling to assembly reports no emulator stage. */
+    @Test
+    void compileStageTimings() throws IOException {
+        var source = "func main() : void {\n  ::printInt(1);\n}\n";
+        var output = File.createTempFile("crux", ".s");
+        try {
+            var driver = new Driver(new PrintStream(new ByteArrayOutputStream()), System.err);
+            var stages = new ArrayList<String>();
+            driver.addStageListener(timing -> stages.add(timing.getStage()));
+            driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+            driver.setOutputFile(output.getPath());
+            driver.run();
+            Assertions.assertEquals(List.of("parse", "makeAST", "typeCheck", "emitIR", "emitASM"), stages);
+        } finally {
+            output.delete();
+        }
+    }
+}
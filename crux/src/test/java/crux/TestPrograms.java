@@ -0,0 +1,80 @@
+package crux;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * The programs of a stage of the {@link CompilerStageTests}, for the tests of features that run them all whatever
+ * stages those tests are set to.
+ */
+final class TestPrograms {
+    /** A program with what it reads and what it prints, as resources. */
+    static final class TestProgram {
+        final String in;
+        final String input;
+        final String out;
+
+        private TestProgram(String in, String input, String out) {
+            this.in = in;
+            this.input = input;
+            this.out = out;
+        }
+
+        String source() throws IOException {
+            return read(in);
+        }
+
+        String input() throws IOException {
+            return read(input);
+        }
+
+        String expectedOutput() throws IOException {
+            return read(out);
+        }
+    }
+
+    private TestPrograms() {
+    }
+
+    static List<TestProgram> of(String stageName) throws IOException {
+        var folder = String.format("crux/stages/%s", stageName);
+        try (var programs = TestPrograms.class.getClassLoader().getResourceAsStream(folder);
+             var br = new BufferedReader(new InputStreamReader(Objects.requireNonNull(programs)))) {
+            return br.lines()
+                    .filter(resourceName -> resourceName.endsWith(".crx"))
+                    .map(resourceName -> {
+                        var testName = resourceName.substring(0, resourceName.length() - 4);
+                        return new TestProgram(folder + "/" + resourceName, String.format("%s/%s.in", folder, testName),
+                                String.format("%s/%s.out", folder, testName));
+                    }).collect(Collectors.toList());
+        }
+    }
+
+    static String read(String resourceName) throws IOException {
+        try (var in = Objects.requireNonNull(TestPrograms.class.getClassLoader().getResourceAsStream(resourceName))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Emulates a program on a driver that the caller sets up further, and returns what it printed. */
+    static String emulate(String source, String input, Consumer<Driver> setUp) {
+        var outStream = new ByteArrayOutputStream();
+        var outPrintStream = new PrintStream(outStream);
+        var driver = new Driver(outPrintStream, outPrintStream);
+        driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+        driver.enableEmulator();
+        setUp.accept(driver);
+        driver.setEmulatorInput(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        driver.run();
+        return outStream.toString();
+    }
+
+    /** Emulates a program that reads nothing. */
+    static String emulate(String source, Consumer<Driver> setUp) {
+        return emulate(source, "", setUp);
+    }
+}
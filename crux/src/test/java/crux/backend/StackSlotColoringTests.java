@@ -0,0 +1,102 @@
+package crux.backend;
+
+import crux.frontend.types.FuncType;
+import crux.frontend.types.IntType;
+import crux.frontend.types.TypeList;
+import crux.frontend.types.VoidType;
+import crux.midend.ir.core.BasicBlock;
+import crux.midend.ir.core.Function;
+import crux.midend.ir.core.IntegerConstant;
+import crux.midend.ir.core.LocalVar;
+import crux.midend.ir.core.Program;
+import crux.midend.ir.core.Variable;
+import crux.midend.ir.core.insts.CopyInst;
+import crux.midend.ir.core.insts.JumpInst;
+import crux.midend.ir.core.insts.ReturnInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+final class StackSlotColoringTests {
+    private final Program program = new Program();
+    private Function f;
+    private LocalVar v, w, r;
+    /** The entry, the else branch, the then branch and the exit. */
+    private List<BasicBlock> layout;
+
+    /**
+     * <pre>
+     * v = 1
+     * if (v) r = v else { w = 2; r = w }
+     * return r
+     * </pre>
+     * With the else branch laid out between the entry and the then branch, the interval of v spans the else branch,
+     * where v is dead and only w lives: a hole in which w can take the slot of v.
+     */
+    private void buildFunction() {
+        f = new Function("f", List.of(), new FuncType(new TypeList(), new VoidType()));
+        v = f.getLocalVar(new IntType(), "v");
+        w = f.getLocalVar(new IntType(), "w");
+        r = f.getLocalVar(new IntType(), "r");
+
+        var define = new CopyInst(v, IntegerConstant.get(program, 1));
+        var jump = new JumpInst(v);
+        var otherwise = new CopyInst(w, IntegerConstant.get(program, 2));
+        var copyW = new CopyInst(r, w);
+        var copyV = new CopyInst(r, v);
+        var ret = new ReturnInst(r);
+        f.setStart(define);
+        define.setNext(0, jump);
+        jump.setNext(0, otherwise);
+        jump.setNext(1, copyV);
+        otherwise.setNext(0, copyW);
+        copyW.setNext(0, ret);
+        copyV.setNext(0, ret);
+        program.addFunction(f);
+
+        var cfg = f.getCFG();
+        layout = List.of(cfg.getEntry(), cfg.getBlock(otherwise), cfg.getBlock(copyV), cfg.getBlock(ret));
+    }
+
+    @Test
+    void sharesSlotInLifetimeHole() {
+        buildFunction();
+        var intervals = new LiveIntervals(f, layout);
+        var coloring = new StackSlotColoring(f, intervals);
+
+        Assertions.assertTrue(interval(intervals, v).start < interval(intervals, w).start
+                && interval(intervals, w).end < interval(intervals, v).end, "w lives in the hull of v");
+        Assertions.assertEquals(3, coloring.getNumVariables());
+        Assertions.assertEquals(2, coloring.getNumColors());
+        Assertions.assertEquals(coloring.getColor(v), coloring.getColor(w));
+        Assertions.assertNotEquals(coloring.getColor(v), coloring.getColor(r));
+    }
+
+    @Test
+    void reportsSharedFrame() throws IOException {
+        buildFunction();
+        var report = new ByteArrayOutputStream();
+        var output = File.createTempFile("crux", ".s");
+        try {
+            var codegen = new CodeGen(program, output.getPath());
+            codegen.enableFrameReport(new PrintStream(report));
+            codegen.genCode();
+        } finally {
+            output.delete();
+        }
+        // Three words rounded up to four for alignment, against the two slots of the two colors
+        Assertions.assertEquals("f: frame 4 -> 2 words", report.toString().trim());
+    }
+
+    private static LiveIntervals.Interval interval(LiveIntervals intervals, Variable var) {
+        for (LiveIntervals.Interval interval : intervals.getIntervals()) {
+            if (interval.var == var) return interval;
+        }
+        throw new AssertionError("no interval for " + var);
+    }
+}
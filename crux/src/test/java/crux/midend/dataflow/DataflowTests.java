@@ -0,0 +1,191 @@
+package crux.midend.dataflow;
+
+import crux.frontend.types.BoolType;
+import crux.frontend.types.FuncType;
+import crux.frontend.types.IntType;
+import crux.frontend.types.TypeList;
+import crux.frontend.types.VoidType;
+import crux.midend.ir.core.BasicBlock;
+import crux.midend.ir.core.ControlFlowGraph;
+import crux.midend.ir.core.Function;
+import crux.midend.ir.core.Instruction;
+import crux.midend.ir.core.IntegerConstant;
+import crux.midend.ir.core.LocalVar;
+import crux.midend.ir.core.Program;
+import crux.midend.ir.core.insts.BinaryOperator;
+import crux.midend.ir.core.insts.CompareInst;
+import crux.midend.ir.core.insts.CopyInst;
+import crux.midend.ir.core.insts.JumpInst;
+import crux.midend.ir.core.insts.ReturnInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+final class DataflowTests {
+    private final Program program = new Program();
+
+    /**
+     * The variables that every path from the entry writes before the start or end of a block: a forward "must"
+     * problem, the opposite of {@link LiveVariables} in both direction and meet.
+     */
+    private static final class DefinitelyAssigned extends DataflowAnalysis {
+        DefinitelyAssigned(ControlFlowGraph cfg) {
+            super(cfg, Direction.FORWARD);
+            solve();
+        }
+
+        @Override
+        protected BitSet boundary() {
+            var arguments = new BitSet();
+            arguments.set(0, getCFG().getFunction().getArguments().size());
+            return arguments;
+        }
+
+        @Override
+        protected BitSet initial() {
+            var all = new BitSet();
+            all.set(0, getCFG().getFunction().getNumSlots());
+            return all;
+        }
+
+        @Override
+        protected void meet(BitSet into, BitSet other) {
+            into.and(other);
+        }
+
+        @Override
+        protected void transfer(BasicBlock block, BitSet value) {
+            for (Instruction inst : block.getInstructions()) {
+                if (LiveVariables.getDef(inst) >= 0)
+                    value.set(LiveVariables.getDef(inst));
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * i = 0; one = 1
+     * while (i < n) i = i + one
+     * return i
+     * </pre>
+     */
+    @Test
+    void liveVariablesInLoop() {
+        var n = new LocalVar(new IntType(), "n");
+        var f = function(n);
+        var i = f.getLocalVar(new IntType(), "i");
+        var one = f.getLocalVar(new IntType(), "one");
+        var t = f.getLocalVar(new BoolType(), "t");
+
+        var init = new CopyInst(i, IntegerConstant.get(program, 0));
+        var head = new CompareInst(t, CompareInst.Predicate.LT, i, n);
+        var jump = new JumpInst(t);
+        var add = new BinaryOperator(BinaryOperator.Op.Add, i, i, one);
+        var ret = new ReturnInst(i);
+        chain(f, init, new CopyInst(one, IntegerConstant.get(program, 1)), head, jump, ret);
+        jump.setNext(1, add);
+        add.setNext(0, head);
+
+        var cfg = f.getCFG();
+        var live = new LiveVariables(cfg);
+        Assertions.assertEquals(set(n), live.getLiveIn(cfg.getEntry()));
+        Assertions.assertEquals(set(i, n, one), live.getLiveIn(cfg.getBlock(head)));
+        Assertions.assertEquals(set(i, n, one), live.getLiveOut(cfg.getBlock(add)));
+        Assertions.assertEquals(set(i), live.getLiveIn(cfg.getBlock(ret)));
+        Assertions.assertEquals(set(), live.getLiveOut(cfg.getBlock(ret)));
+
+        var liveAfter = live.getLiveAfterInstructions();
+        Assertions.assertEquals(set(i, n), liveAfter[init.getId()]);
+        Assertions.assertEquals(set(i, n, one, t), liveAfter[head.getId()]);
+    }
+
+    /**
+     * <pre>
+     * if (a < b) x = b else x = a
+     * return x
+     * </pre>
+     */
+    @Test
+    void liveVariablesInDiamond() {
+        var a = new LocalVar(new IntType(), "a");
+        var b = new LocalVar(new IntType(), "b");
+        var f = function(a, b);
+        var x = f.getLocalVar(new IntType(), "x");
+        var c = f.getLocalVar(new BoolType(), "c");
+
+        var compare = new CompareInst(c, CompareInst.Predicate.LT, a, b);
+        var jump = new JumpInst(c);
+        var otherwise = new CopyInst(x, a);
+        var then = new CopyInst(x, b);
+        var ret = new ReturnInst(x);
+        chain(f, compare, jump, otherwise, ret);
+        jump.setNext(1, then);
+        then.setNext(0, ret);
+
+        var cfg = f.getCFG();
+        var live = new LiveVariables(cfg);
+        Assertions.assertEquals(set(a, b), live.getLiveIn(cfg.getEntry()));
+        Assertions.assertEquals(set(a, b), live.getLiveOut(cfg.getEntry()));
+        Assertions.assertEquals(set(a), live.getLiveIn(cfg.getBlock(otherwise)));
+        Assertions.assertEquals(set(b), live.getLiveIn(cfg.getBlock(then)));
+        Assertions.assertEquals(set(x), live.getLiveOut(cfg.getBlock(then)));
+        Assertions.assertEquals(set(x), live.getLiveOut(cfg.getBlock(otherwise)));
+
+        var assigned = new DefinitelyAssigned(cfg);
+        Assertions.assertEquals(set(a, b), assigned.getIn(cfg.getEntry()));
+        Assertions.assertEquals(set(a, b, c, x), assigned.getIn(cfg.getBlock(ret)));
+    }
+
+    /**
+     * <pre>
+     * if (c) u = 1
+     * return u
+     * </pre>
+     * Reading u is only defined on one path, so u is live at the entry, where nothing wrote it.
+     */
+    @Test
+    void liveVariablesOfUninitializedRead() {
+        var c = new LocalVar(new BoolType(), "c");
+        var f = function(c);
+        var u = f.getLocalVar(new IntType(), "u");
+
+        var jump = new JumpInst(c);
+        var write = new CopyInst(u, IntegerConstant.get(program, 1));
+        var ret = new ReturnInst(u);
+        chain(f, jump, ret);
+        jump.setNext(1, write);
+        write.setNext(0, ret);
+
+        var cfg = f.getCFG();
+        var live = new LiveVariables(cfg);
+        Assertions.assertEquals(set(c, u), live.getLiveIn(cfg.getEntry()));
+        Assertions.assertEquals(set(), live.getLiveIn(cfg.getBlock(write)));
+
+        var assigned = new DefinitelyAssigned(cfg);
+        Assertions.assertEquals(set(c, u), assigned.getOut(cfg.getBlock(write)));
+        Assertions.assertEquals(set(c), assigned.getIn(cfg.getBlock(ret)));
+        BitSet uninitialized = (BitSet) live.getLiveIn(cfg.getEntry()).clone();
+        uninitialized.andNot(assigned.getIn(cfg.getEntry()));
+        Assertions.assertEquals(set(u), uninitialized);
+    }
+
+    private static Function function(LocalVar... args) {
+        return new Function("f", List.of(args), new FuncType(new TypeList(), new VoidType()));
+    }
+
+    /** Makes the instructions the body of the function, each followed by the next. */
+    private static void chain(Function f, Instruction... insts) {
+        f.setStart(insts[0]);
+        for (int k = 1; k < insts.length; k++)
+            insts[k - 1].setNext(0, insts[k]);
+    }
+
+    private static BitSet set(LocalVar... vars) {
+        var set = new BitSet();
+        for (LocalVar var : vars)
+            set.set(var.getSlot());
+        return set;
+    }
+}